@@ -1,4 +1,5 @@
-// a collection of helper methods relating to bitboards
+// a collection of helper methods relating to bitboards.
+// each square index (8*y + x, so a1=0, h1=7, a8=56) corresponds to the bit with the same index
 public class Bitboards {
     public final static void print(long bitboard) {
         for (int i = 0; i < 64; i++) {
@@ -12,15 +13,15 @@ public class Bitboards {
     // single bit modifications methods
 
     public final static long toggleBit(long bitboard, int index) {
-        return bitboard ^ (1L << (63-index));
+        return bitboard ^ (1L << index);
     }
 
     public final static long setBit(long bitboard, int index) {
-        return bitboard | (1L << (63-index));
+        return bitboard | (1L << index);
     }
 
     public final static long unsetBit(long bitboard, int index) {
-        return bitboard & ~(1L << (63-index));
+        return bitboard & ~(1L << index);
     }
 
 
@@ -44,8 +45,7 @@ public class Bitboards {
     
     // returns true if bit at index ==1, false otherwise (==0)
     public final static boolean match(long bitboard, int index) {
-        long mask = 1L << (63-index);
-        return ((bitboard & mask) == mask);
+        return (bitboard & (1L << index)) != 0;
     }
     
     public final static boolean match(long bitboard, Coord coord) {
@@ -53,6 +53,20 @@ public class Bitboards {
     }
 
 
+    // set bit iteration, e.g. to visit every square in a bitboard:
+    // for (long b = bitboard; b != 0; b = Bitboards.popLsb(b)) { int index = Bitboards.lsb(b); ... }
+
+    // index of the lowest set bit, bitboard must not be empty
+    public final static int lsb(long bitboard) {
+        return Long.numberOfTrailingZeros(bitboard);
+    }
+
+    // the bitboard with its lowest set bit cleared
+    public final static long popLsb(long bitboard) {
+        return bitboard & (bitboard - 1);
+    }
+
+
     // colour-based compositing methods
 
     // generate bitboard of all white pieces
@@ -82,23 +96,23 @@ public class Bitboards {
 
     // mask constants
 
-    public final static long fileMask = 0x0101010101010101L;
-    public final static long rankMask = 0xff00000000000000L;
+    public final static long fileMask = 0x0101010101010101L;  // a file
+    public final static long rankMask = 0x00000000000000ffL;  // 1st rank
 
 
     // mask generating methods
 
     // TODO: review necessity
     public final static long squareMask(int index) {
-        return 1L << (63-index);
+        return 1L << index;
     }
 
     public final static long fileMask(int index) {
-        return fileMask << (7-(index%8));
+        return fileMask << (index%8);
     }
 
     public final static long rankMask(int index) {
-        return rankMask >>> (index/8)*8;
+        return rankMask << (index/8)*8;
     }
 
     // public final static long diagonalMask(int index) {
@@ -108,61 +122,111 @@ public class Bitboards {
 
     public final static long kingMoveMask(int index) {
         // mask for king moves 1 square all around
-        long mask = 0b1110000010100000111L;
-        final int x = index % 8;
-        final int y = index / 8;
-
-        if (x == 0) mask = 0b0110000000100000011L;
-        else if (x == 7) mask = 0b1100000010000000110L;
-
-        // shift across and down an extra square to centre the mask
-        int shiftAmount = (6-x) + 8*(6-y);
-        if (shiftAmount < 0) return mask >>> -shiftAmount;
-        return mask << shiftAmount;
+        return Bitboards.offsetMask(index, new int[]{-1, 0, 1, -1, 1, -1, 0, 1}, new int[]{-1, -1, -1, 0, 0, 1, 1, 1});
     }
 
     public final static long knightMoveMask(int index) {
-        long mask = 0b101000010001000000000001000100001010L;
+        // 2 squares one way and 1 square perpendicular
+        return Bitboards.offsetMask(index, new int[]{1, 2, 2, 1, -1, -2, -2, -1}, new int[]{2, 1, -1, -2, -2, -1, 1, 2});
+    }
+
+    // mask of the squares at each (dx, dy) offset from the given square, skipping any that are off the board
+    private final static long offsetMask(int index, int[] dxs, int[] dys) {
         final int x = index % 8;
         final int y = index / 8;
+        long mask = 0;
+
+        for (int i = 0; i < dxs.length; i++) {
+            final int targetX = x + dxs[i];
+            final int targetY = y + dys[i];
+            if (targetX >= 0 && targetX <= 7 && targetY >= 0 && targetY <= 7) {
+                mask = Bitboards.setBit(mask, Bitboards.toIndex(targetX, targetY));
+            }
+        }
 
-        int shiftAmount = (5-x) + 8*(5-y);
-        if (shiftAmount < 0) mask >>>= -shiftAmount;
-        else mask <<= shiftAmount;
+        return mask;
+    }
 
-        if (x < 2) mask &= ~fileMask(index-2);
-        if (x < 1) return mask & ~fileMask(index-1);
-        if (x > 5) mask &= ~fileMask(index+2);
-        if (x > 6) return mask & ~fileMask(index+1);
 
-        return mask;
+    // precomputed attack sets for non-sliding pieces, indexed by square
+    private final static long[] knightAttackTable = new long[64];
+    private final static long[] kingAttackTable = new long[64];
+    private final static long[][] pawnAttackTable = new long[2][64];  // first index: 0=white, 1=black
+
+    static {
+        for (int i = 0; i < 64; i++) {
+            knightAttackTable[i] = Bitboards.knightMoveMask(i);
+            kingAttackTable[i] = Bitboards.kingMoveMask(i);
+
+            // pawns attack 1 square diagonally forwards, which is up the board for white and down for black
+            final int x = i % 8;
+            final int y = i / 8;
+            for (int c = 0; c < 2; c++) {
+                final int attackY = y + (c == 0 ? 1 : -1);
+                if (attackY < 0 || attackY > 7) continue;
+                if (x > 0) pawnAttackTable[c][i] = Bitboards.setBit(pawnAttackTable[c][i], Bitboards.toIndex(x-1, attackY));
+                if (x < 7) pawnAttackTable[c][i] = Bitboards.setBit(pawnAttackTable[c][i], Bitboards.toIndex(x+1, attackY));
+            }
+        }
     }
 
-    public final static long pawnAttacksL(long bitboard, boolean forwards) {
-        if (forwards) bitboard <<= 9;
-        else bitboard >>>= 7;
+    public final static long knightAttacks(int index) {
+        return knightAttackTable[index];
+    }
 
-        // exclude moves that wrapped around
-        return bitboard & ~fileMask;
+    public final static long kingAttacks(int index) {
+        return kingAttackTable[index];
     }
 
-    public final static long pawnAttacksR(long bitboard, boolean forwards) {
+    // squares attacked by a pawn of the given colour on the given square
+    public final static long pawnAttacks(Colour colour, int index) {
+        return pawnAttackTable[colour == Colour.White ? 0 : 1][index];
+    }
+
+    // set-wise pawn moves, these work on every pawn in a bitboard at once.
+    // forwards is up the board (white) or down the board (black)
+
+    // squares the given pawns can move 1 square forwards to
+    public final static long pawnPushes(long pawns, long emptySquares, boolean forwards) {
+        return (forwards ? pawns << 8 : pawns >>> 8) & emptySquares;
+    }
+
+    // squares the given pawns can move 2 squares forwards to, from their starting rank
+    public final static long pawnDoublePushes(long pawns, long emptySquares, boolean forwards) {
+        // pawns that got to the 3rd (or 6th) rank with a single push can go one further
+        final long singlePushes = Bitboards.pawnPushes(pawns, emptySquares, forwards) & (forwards ? rankMask << 16 : rankMask << 40);
+        return Bitboards.pawnPushes(singlePushes, emptySquares, forwards);
+    }
+
+    // squares attacked towards the a file by every pawn in the given bitboard, forwards being up the board (white)
+    public final static long pawnAttacksL(long bitboard, boolean forwards) {
         if (forwards) bitboard <<= 7;
         else bitboard >>>= 9;
 
-        // exclude moves that wrapped around
+        // exclude moves that wrapped around onto the h file
         return bitboard & ~(fileMask << 7);
     }
 
+    // squares attacked towards the h file by every pawn in the given bitboard, forwards being up the board (white)
+    public final static long pawnAttacksR(long bitboard, boolean forwards) {
+        if (forwards) bitboard <<= 9;
+        else bitboard >>>= 7;
+
+        // exclude moves that wrapped around onto the a file
+        return bitboard & ~fileMask;
+    }
+
     public final static long passedPawnMaskWhite(int index) {
         final int x = index % 8;
         final int y = index / 8;
 
         final long fileMask = Bitboards.fileMask(index);
-        final long fileMaskL = (x == 0) ? 0 : fileMask << 1;
-        final long fileMaskR = (x == 7) ? 0 : fileMask >>> 1;
+        final long fileMaskL = (x == 0) ? 0 : fileMask >>> 1;
+        final long fileMaskR = (x == 7) ? 0 : fileMask << 1;
 
-        return (fileMask|fileMaskL|fileMaskR) >>> 8*(y+1);
+        // every square on these files in front of the pawn (ranks above it)
+        if (y == 7) return 0;
+        return (fileMask|fileMaskL|fileMaskR) << 8*(y+1);
     }
 
     public final static long passedPawnMaskBlack(int index) {
@@ -170,10 +234,203 @@ public class Bitboards {
         final int y = index / 8;
 
         final long fileMask = Bitboards.fileMask(index);
-        final long fileMaskL = (x == 0) ? 0 : fileMask << 1;
-        final long fileMaskR = (x == 7) ? 0 : fileMask >>> 1;
+        final long fileMaskL = (x == 0) ? 0 : fileMask >>> 1;
+        final long fileMaskR = (x == 7) ? 0 : fileMask << 1;
 
-        return (fileMask|fileMaskL|fileMaskR) << 8*(y+1);
+        // every square on these files in front of the pawn (ranks below it)
+        if (y == 0) return 0;
+        return (fileMask|fileMaskL|fileMaskR) >>> 8*(8-y);
+    }
+
+
+    // sliding piece attacks (magic bitboards)
+    // https://www.chessprogramming.org/Magic_Bitboards
+    //
+    // for each square, the squares that can block a slider ('relevant occupancy', excluding the board
+    // edge in each direction) are masked out of the occupancy, multiplied by a magic number and shifted
+    // to give an index into a table of precomputed attack sets. the magic numbers below were found by
+    // trial and error (see initMagic()), searching for them at startup every run took around half a second
+
+    private final static long[] rookMasks = new long[64];
+    private final static long[] rookMagics = {
+        0x0980008011400020L, 0x8340004410002000L, 0x0880200090008268L, 0x0080080080100004L,
+        0x8100110004020800L, 0x0300010004000822L, 0x08801a0029000080L, 0x8100050001204882L,
+        0x0844800081400320L, 0x0804402010004000L, 0x0108802003100480L, 0x5c00808010000800L,
+        0x0003001801001014L, 0x0002000200041008L, 0x0004008108042210L, 0x0105000100009042L,
+        0x0400808000400021L, 0xc100404010002000L, 0x0060008010002088L, 0x0400808008001000L,
+        0x4440808008000400L, 0x1002008004000280L, 0x40024400300d1248L, 0x0010020000408104L,
+        0x0101008200204200L, 0x8020002040005000L, 0x4100100080802000L, 0x4008006a80100280L,
+        0x0021008500100800L, 0x5000040080800200L, 0x0010040101000200L, 0x6140004200008104L,
+        0x4000400020800090L, 0x2020002080804000L, 0x0000408202002010L, 0x0080100501000820L,
+        0x0004040080800800L, 0xa01a800200800400L, 0x0014820104009008L, 0x0008004082000401L,
+        0x0029804004608010L, 0x0140002000818048L, 0x000c410420010014L, 0x0020100008008080L,
+        0x8000080004008080L, 0x0082008004008002L, 0x1002000801020004L, 0x0010848505620004L,
+        0x0000801840002080L, 0x2002010c80403200L, 0x9000114220010300L, 0x0001000820100100L,
+        0x000a800401080080L, 0xc001400410200801L, 0x4800480102300400L, 0x1000010040840200L,
+        0x0002800442162101L, 0x4000810010204202L, 0x0400201200084082L, 0x8200210004081001L,
+        0x1002001004200802L, 0x0005000208040001L, 0x0002002701ac0822L, 0x000010250184004aL
+    };
+    private final static int[] rookShifts = new int[64];
+    private final static long[][] rookAttackTable = new long[64][];
+
+    private final static long[] bishopMasks = new long[64];
+    private final static long[] bishopMagics = {
+        0x4014700208012480L, 0x0220014200a10001L, 0x8108084040806120L, 0x200e0a02001a00c0L,
+        0x4442021080243000L, 0x4c00901008100050L, 0x0800821110404840L, 0x0000120222024003L,
+        0x008a08a041020200L, 0x000118460c0428a0L, 0x0000314b06020022L, 0x0804180481080025L,
+        0x0000340520004880L, 0x0440309004200008L, 0x2108084402a01000L, 0x0328024422082200L,
+        0xc21200c004310c00L, 0x460840040820c400L, 0x0010004a02720020L, 0x000800488a044044L,
+        0x0025000a9040000aL, 0x0009010600822104L, 0x0021040400821002L, 0x0801000a19010120L,
+        0x0004048210915000L, 0x0310222005242c05L, 0x00544800101c8010L, 0x2308080000820003L,
+        0x2008820004010401L, 0x0650110244208800L, 0x0009324401080802L, 0x01008022a6010c40L,
+        0x8081200804200940L, 0x300c040305200240L, 0x0002062200240800L, 0x2801400a00042200L,
+        0x14090104000202a0L, 0x05b0020080081048L, 0x0a10010910020880L, 0xc403020222060b00L,
+        0x260d301250402080L, 0x0000a80802088800L, 0x0001008041023000L, 0x0000020202016420L,
+        0x0008540502140400L, 0x0201101008400b80L, 0x0104104202000058L, 0x0002080101000031L,
+        0x4200a20120200004L, 0x0004208410090400L, 0x10a0182508088000L, 0x1814081420880800L,
+        0x1008810850340611L, 0x0081482248020610L, 0x0009080800940000L, 0x0060010240890800L,
+        0x048a920802080500L, 0x26000e9204900404L, 0x200002a080482200L, 0xac8018422020a808L,
+        0x929a000440a50308L, 0x41801040826c0110L, 0x0140c01081010101L, 0xc0a0012206040ea0L
+    };
+    private final static int[] bishopShifts = new int[64];
+    private final static long[][] bishopAttackTable = new long[64][];
+
+    static {
+        long[] seed = {0x2545f4914f6cdd1dL};
+        for (int i = 0; i < 64; i++) {
+            initMagic(i, true, rookMasks, rookMagics, rookShifts, rookAttackTable, seed);
+            initMagic(i, false, bishopMasks, bishopMagics, bishopShifts, bishopAttackTable, seed);
+        }
+    }
+
+    // returns all squares a rook on the given square attacks (including captures of either colour)
+    public final static long rookAttacks(int index, long occupancy) {
+        return rookAttackTable[index][(int)(((occupancy & rookMasks[index]) * rookMagics[index]) >>> rookShifts[index])];
+    }
+
+    // returns all squares a bishop on the given square attacks (including captures of either colour)
+    public final static long bishopAttacks(int index, long occupancy) {
+        return bishopAttackTable[index][(int)(((occupancy & bishopMasks[index]) * bishopMagics[index]) >>> bishopShifts[index])];
+    }
+
+    public final static long queenAttacks(int index, long occupancy) {
+        return Bitboards.rookAttacks(index, occupancy) | Bitboards.bishopAttacks(index, occupancy);
+    }
+
+    // squares strictly between two squares on the same rank, file or diagonal, and the whole line through them.
+    // both are empty if the squares don't share a line
+    private final static long[][] betweenTable = new long[64][64];
+    private final static long[][] lineTable = new long[64][64];
+
+    static {
+        for (int a = 0; a < 64; a++) {
+            for (int b = 0; b < 64; b++) {
+                if (a == b) continue;
+                final long ab = Bitboards.squareMask(a) | Bitboards.squareMask(b);
+                if ((Bitboards.rookAttacks(a, 0) & Bitboards.squareMask(b)) != 0) {
+                    betweenTable[a][b] = Bitboards.rookAttacks(a, ab) & Bitboards.rookAttacks(b, ab);
+                    lineTable[a][b] = (Bitboards.rookAttacks(a, 0) & Bitboards.rookAttacks(b, 0)) | ab;
+                } else if ((Bitboards.bishopAttacks(a, 0) & Bitboards.squareMask(b)) != 0) {
+                    betweenTable[a][b] = Bitboards.bishopAttacks(a, ab) & Bitboards.bishopAttacks(b, ab);
+                    lineTable[a][b] = (Bitboards.bishopAttacks(a, 0) & Bitboards.bishopAttacks(b, 0)) | ab;
+                }
+            }
+        }
+    }
+
+    public final static long between(int a, int b) {
+        return betweenTable[a][b];
+    }
+
+    public final static long line(int a, int b) {
+        return lineTable[a][b];
+    }
+
+    // slow ray-walking attack generation, only used to build the magic attack tables.
+    // if relevantOnly is set, the last square of each ray is left out (see above)
+    private final static long slidingAttacks(int index, long occupancy, boolean straight, boolean relevantOnly) {
+        final int[] dxs = straight ? new int[]{1, -1, 0,  0} : new int[]{1,  1, -1, -1};
+        final int[] dys = straight ? new int[]{0,  0, 1, -1} : new int[]{1, -1,  1, -1};
+        long attacks = 0;
+
+        for (int d = 0; d < 4; d++) {
+            int x = index % 8 + dxs[d];
+            int y = index / 8 + dys[d];
+            while (x >= 0 && x <= 7 && y >= 0 && y <= 7) {
+                if (relevantOnly) {
+                    int nextX = x + dxs[d];
+                    int nextY = y + dys[d];
+                    if (nextX < 0 || nextX > 7 || nextY < 0 || nextY > 7) break;
+                }
+
+                attacks = Bitboards.setBit(attacks, Bitboards.toIndex(x, y));
+                if (Bitboards.match(occupancy, Bitboards.toIndex(x, y))) break;
+
+                x += dxs[d];
+                y += dys[d];
+            }
+        }
+
+        return attacks;
+    }
+
+    private final static void initMagic(int index, boolean straight, long[] masks, long[] magics, int[] shifts, long[][] attackTable, long[] seed) {
+        final long mask = Bitboards.slidingAttacks(index, 0, straight, true);
+        final int bits = Long.bitCount(mask);
+        final int size = 1 << bits;
+        masks[index] = mask;
+        shifts[index] = 64 - bits;
+
+        // enumerate every subset of the mask (carry-rippler trick) and its attack set
+        final long[] occupancies = new long[size];
+        final long[] attacks = new long[size];
+        long subset = 0;
+        for (int i = 0; i < size; i++) {
+            occupancies[i] = subset;
+            attacks[i] = Bitboards.slidingAttacks(index, subset, straight, false);
+            subset = (subset - mask) & mask;
+        }
+
+        // try the precomputed magic first, which should always work. failing that, try random sparse candidates
+        // until one maps every subset without a harmful collision. the precomputed magics came from this
+        // search, seeded with 0x2545f4914f6cdd1d and run over squares in order (rook then bishop for each)
+        // (table slots are marked with the attempt they were filled in, so they never need clearing)
+        final long[] table = new long[size];
+        final int[] usedInAttempt = new int[size];
+        int attempt = 0;
+        long magic = magics[index];
+        for (boolean first = true; ; first = false) {
+            if (!first || magic == 0) magic = nextRandom(seed) & nextRandom(seed) & nextRandom(seed);
+            if (Long.bitCount((mask * magic) & 0xff00000000000000L) < 6) continue;
+
+            attempt++;
+            boolean failed = false;
+            for (int i = 0; i < size && !failed; i++) {
+                int tableIndex = (int)((occupancies[i] * magic) >>> shifts[index]);
+                if (usedInAttempt[tableIndex] != attempt) {
+                    usedInAttempt[tableIndex] = attempt;
+                    table[tableIndex] = attacks[i];
+                } else if (table[tableIndex] != attacks[i]) {
+                    failed = true;
+                }
+            }
+
+            if (!failed) {
+                magics[index] = magic;
+                attackTable[index] = table;
+                return;
+            }
+        }
+    }
+
+    // xorshift64 pseudo-random number generator, state is kept in seed[0]
+    private final static long nextRandom(long[] seed) {
+        long x = seed[0];
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        seed[0] = x;
+        return x;
     }
 
 
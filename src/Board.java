@@ -1,23 +1,67 @@
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 public class Board {
     private final static String startFEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
-    
-    // private Piece[][] tiles = new Piece[8][8];
+    private final static String pieceChars = "PNBRQKpnbrqk";  // indexed by piece code
+
+    // piece codes, as returned by pieceCodeAt(). a piece code is also the index of that piece's bitboard,
+    // i.e. (0 for white, 6 for black) + PieceType ordinal
+    public final static int EMPTY = -1;
+
+    // castling rights bits
+    public final static int CASTLE_WHITE_SHORT = 1;
+    public final static int CASTLE_WHITE_LONG = 2;
+    public final static int CASTLE_BLACK_SHORT = 4;
+    public final static int CASTLE_BLACK_LONG = 8;
+
+    // castling rights that survive a move from or to each square, i.e. moving a king or rook
+    // (or capturing a rook) on its starting square removes the corresponding castling rights
+    private final static int[] castlingRightsMask = new int[64];
+    static {
+        Arrays.fill(castlingRightsMask, 0xf);
+        castlingRightsMask[Bitboards.toIndex(0, 0)] &= ~CASTLE_WHITE_LONG;
+        castlingRightsMask[Bitboards.toIndex(4, 0)] &= ~(CASTLE_WHITE_SHORT | CASTLE_WHITE_LONG);
+        castlingRightsMask[Bitboards.toIndex(7, 0)] &= ~CASTLE_WHITE_SHORT;
+        castlingRightsMask[Bitboards.toIndex(0, 7)] &= ~CASTLE_BLACK_LONG;
+        castlingRightsMask[Bitboards.toIndex(4, 7)] &= ~(CASTLE_BLACK_SHORT | CASTLE_BLACK_LONG);
+        castlingRightsMask[Bitboards.toIndex(7, 7)] &= ~CASTLE_BLACK_SHORT;
+    }
+
+    // piece values used by see(), indexed by PieceType ordinal. the king's is high enough that
+    // capturing it always ends the exchange
+    private final static int[] seeValues = {
+        Constants.VALUE_PAWN, Constants.VALUE_KNIGHT, Constants.VALUE_BISHOP, Constants.VALUE_ROOK, Constants.VALUE_QUEEN, 20000
+    };
+
     private GameState gameState;
     private int gameStateLastUpdate;
     private ArrayList<Move> legalMoves;
     private int legalMovesLastUpdate;
     private Colour sideToMove;
-    private Coord enPassantTarget = new Coord(-1,-1);  // placeholder invalid coord
-    private ArrayList<Move> moveHistory;
+    private int enPassantSquare = -1;  // square index, -1 if there is no en passant target
     private int halfmove;
     private int move;
-    private HashMap<String, Integer> repetitionTable;
-    private boolean[][] canCastle = new boolean[2][2];  // first index is colour, second is direction
-                                                        // 0=black, 1=white, 0=short, 1=long
-    
+    private int castlingRights;  // combination of CASTLE_* bits
+    private long zobristKey;  // see Zobrist, kept up to date as pieces and state change
+
+    // scratch list used when this board needs to generate moves for itself, e.g. for getGameState()
+    private final MoveList scratchMoveList = new MoveList();
+
+    // scratch list of material gained after each capture in see(), there can't be more than 32 captures in a row
+    private final int[] seeGains = new int[32];
+
+    // undo stack for makeMove() / unmakeMove(), stored as parallel arrays indexed by undoCount.
+    // each entry holds the move played and everything it destroyed that can't be recomputed from
+    // the move itself. this also doubles as the move history of the game
+    private int[] undoMoves = new int[Constants.UNDO_STACK_INITIAL_SIZE];
+    private int[] undoCaptured = new int[Constants.UNDO_STACK_INITIAL_SIZE];
+    private int[] undoEnPassant = new int[Constants.UNDO_STACK_INITIAL_SIZE];
+    private int[] undoCastling = new int[Constants.UNDO_STACK_INITIAL_SIZE];
+    private int[] undoHalfmove = new int[Constants.UNDO_STACK_INITIAL_SIZE];
+    private long[] undoKeys = new long[Constants.UNDO_STACK_INITIAL_SIZE];  // also used to detect repetitions
+    private int undoCount = 0;
+
     // bitboards
     private long[] bitboards = {
         // white
@@ -33,17 +77,30 @@ public class Board {
         0, // bishop
         0, // rook
         0, // queen
-        0, // king
-        // white controlled squares
-        0,
-        // black controlled squares
-        0
+        0  // king
     };
 
+    // square-centric copy of the bitboards: the piece code on each square, or EMPTY
+    private byte[] mailbox = new byte[64];
+
+    // squares occupied by each colour, and the square of each king (-1 if missing). indexed 0=white, 1=black
+    private long[] occupancy = new long[2];
+    private int[] kingSquares = {-1, -1};
+
     public long[] getBitboards() {
         return this.bitboards;
     }
 
+    // all squares occupied by pieces of the given colour
+    public long getOccupancy(Colour colour) {
+        return this.occupancy[colour == Colour.White ? 0 : 1];
+    }
+
+    // all occupied squares
+    public long getOccupancy() {
+        return this.occupancy[0] | this.occupancy[1];
+    }
+
 
     // main constructor, initialises board from fen string (falls back to default position)
     public Board(String fen) {
@@ -57,10 +114,6 @@ public class Board {
             }
         }
 
-        // init empty repetition table and move history arraylist
-        this.repetitionTable = new HashMap<String, Integer>();
-        this.moveHistory = new ArrayList<Move>();
-
         // naively assume game is ongoing -- can't call getGameState here or infinite loop
         this.gameState = GameState.Ongoing;
 
@@ -68,30 +121,34 @@ public class Board {
         this.gameStateLastUpdate = -1;
         this.legalMovesLastUpdate = -1;
     }
-    
+
     // constructor for creating board with default position (starting position)
     public Board() {
         this(Board.startFEN);
     }
 
+    // copy constructor, the new board has the same position and history as the given board
+    public Board(Board b) {
+        this.load(b);
+    }
+
     public boolean isCheck() {
-        return this.isSquareAttacked(this.getKing(this.sideToMove).getCoord(), (this.sideToMove==Colour.White ? Colour.Black : Colour.White));
+        return this.isSquareAttacked(this.getKingSquare(this.sideToMove), (this.sideToMove==Colour.White ? Colour.Black : Colour.White));
     }
 
     // updates game state and then returns it
     public GameState getGameState() {
         // return 'cached' value if position hasnt changed
+        // (the turn is only recorded once finished, as checking for legal moves makes and unmakes moves)
         int currentTurn = 2*this.move + (this.sideToMove == Colour.Black ? 1 : 0);
-        if (currentTurn != this.gameStateLastUpdate || this.gameState == null) {
-            this.gameStateLastUpdate = currentTurn;
-        } else {
+        if (currentTurn == this.gameStateLastUpdate && this.gameState != null) {
             return this.gameState;
         }
 
         if (this.halfmove >= 100) {
             // if 50 moves have passed, draw by inactivity
             this.gameState = GameState.Draw;
-        } else if (this.repetitionTable.get(this.getStrippedFEN()) != null && this.repetitionTable.get(this.getStrippedFEN()) >= 3) {
+        } else if (this.getRepetitionCount() >= 3) {
             // 3 (or more) occurances of this position during this game, draw by repetition
             this.gameState = GameState.Draw;
         } else if (this.getLegalMoveCount() == 0) {
@@ -108,6 +165,7 @@ public class Board {
             this.gameState = GameState.Ongoing;
         }
 
+        this.gameStateLastUpdate = currentTurn;
         return this.gameState;
     }
 
@@ -122,22 +180,9 @@ public class Board {
         int x = 0;
         for (int i = 0; i < 8; i++) {
             for (int j = 0; j < 8; j++) {
-                Piece p = this.pieceAt(j, 7-i);
                 // this tile should contain a letter showing its type and colour
-                switch(p.getType()) {
-                    case king:   charSeq[x] = 'k'; break;
-                    case queen:  charSeq[x] = 'q'; break;
-                    case rook:   charSeq[x] = 'r'; break;
-                    case bishop: charSeq[x] = 'b'; break;
-                    case knight: charSeq[x] = 'n'; break;
-                    case pawn:   charSeq[x] = 'p'; break;
-                    default:     charSeq[x] = '-';
-                }
-
-                // make white pieces uppercase
-                if (p.getColour() == Colour.White) {
-                    charSeq[x] = Character.toUpperCase(charSeq[x]);
-                }
+                final int code = this.pieceCodeAt(Bitboards.toIndex(j, 7-i));
+                charSeq[x] = (code == EMPTY) ? '-' : pieceChars.charAt(code);
 
                 x++;
             }
@@ -168,18 +213,18 @@ public class Board {
             return false;
         }
 
-        
-        // for (int i = 0; i < this.bitboards.length; i++) this.bitboards[i] = 0;
-        // clear all bitboards and this.tiles
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                this.removePieceAt(new Coord(i,j));
-            }
-        }
-        
+
+        // clear all bitboards
+        for (int i = 0; i < 12; i++) this.bitboards[i] = 0;
+        Arrays.fill(this.mailbox, (byte)EMPTY);
+        this.occupancy[0] = 0;
+        this.occupancy[1] = 0;
+        this.kingSquares[0] = -1;
+        this.kingSquares[1] = -1;
+
         for (int i = 0; i < 8; i++) {
             int end = 8; // make sure we only read required amount of chars
-            // x used to index this.tiles[], j used to index rows[i]
+            // x used to index squares, j used to index rows[i]
             // these need to increase every loop, but x may need to be increased more
             // due to '5' representing 5 pieces despite being 1 character, for example.
             int x = 0;
@@ -187,16 +232,12 @@ public class Board {
                 if ("12345678".indexOf(rows[i].charAt(j)) != -1) {
                     // get int value of this char
                     int value = Integer.parseInt(Character.toString(rows[i].charAt(j)));
-                    
+
                     // don't try to read 8 characters here, there will be fewer
                     end -= (value - 1);
 
-                    // add the correct amount of empty spaces to this row
-                    for (int a = 0; a < value; a++) {
-                        // this.tiles[i][x] = new Piece(Colour.None, PieceType.empty, new Coord(x, 7-i), this);
-                        // this.removePieceAt(new Coord (x, 7-i));
-                        if (a < value - 1) x++;
-                    }
+                    // skip over the correct amount of empty spaces in this row
+                    x += value - 1;
                 } else if ("kqrbnpKQRBNP".indexOf(rows[i].charAt(j)) != -1) {
                     // determine piecetype
                     PieceType type;
@@ -211,19 +252,16 @@ public class Board {
                     }
 
                     // determine colour
-                    Colour colour;
+                    int colourOffset;
                     if (rows[i].charAt(j) == rows[i].toLowerCase().charAt(j)) {
-                        colour = Colour.Black;
+                        colourOffset = 6;  // black
                     } else {
-                        colour = Colour.White;
+                        colourOffset = 0;  // white
                     }
 
-                    // set piece at relevant coord to new piece with the relevant values set
-                    // (x,y)->(y,7-x) is the transform done here, this rotates 90 deg clockwise as we are
-                    // using a different coordinate system in this loop than is expected elsewhere
-                    // this.tiles[i][x] = new Piece(colour, type, new Coord(x, 7-i), this);
-                    this.setPieceAt(new Coord(x, 7-i), new Piece(colour, type, new Coord(x, 7-i), this));
-                    // System.out.println("x: " + i + " y: " + x + " | newX: " + x + " newY: " + (7-i));
+                    // put piece on relevant square. rows are listed from the top of the board down,
+                    // so (x,i) in this loop corresponds to (x,7-i) elsewhere
+                    this.putPiece(colourOffset + type.ordinal(), Bitboards.toIndex(x, 7-i));
                 } else {
                     // invalid character, error
                     return false;
@@ -242,16 +280,15 @@ public class Board {
         }
 
         // field 2: castling ability
-        // black
-        this.canCastle[0][0] = fields[2].contains("k");
-        this.canCastle[0][1] = fields[2].contains("q");
-        // white
-        this.canCastle[1][0] = fields[2].contains("K");
-        this.canCastle[1][1] = fields[2].contains("Q");
+        this.castlingRights = 0;
+        if (fields[2].contains("K")) this.castlingRights |= CASTLE_WHITE_SHORT;
+        if (fields[2].contains("Q")) this.castlingRights |= CASTLE_WHITE_LONG;
+        if (fields[2].contains("k")) this.castlingRights |= CASTLE_BLACK_SHORT;
+        if (fields[2].contains("q")) this.castlingRights |= CASTLE_BLACK_LONG;
 
         // field 3: en passant target
-        if (fields[3].equals("-")) this.enPassantTarget = new Coord(-1,-1);
-        else this.enPassantTarget = new Coord(fields[3]);
+        if (fields[3].equals("-")) this.enPassantSquare = -1;
+        else this.enPassantSquare = Bitboards.toIndex(new Coord(fields[3]));
 
         // field 4: halfmove clock (for draw by inactivity)
         this.halfmove = Integer.parseInt(fields[4]);
@@ -259,8 +296,13 @@ public class Board {
         // field 5: fullmove number
         this.move = Integer.parseInt(fields[5]);
 
-        // finally, check controlled squares for each side and store this
-        this.checkControlledSquares();
+        // hash the whole new position
+        this.zobristKey = this.computeZobristKey();
+
+        // any cached values or undo information belong to whatever position was loaded before
+        this.undoCount = 0;
+        this.gameStateLastUpdate = -1;
+        this.legalMovesLastUpdate = -1;
 
         // everything seems to have worked, success (return true)
         return true;
@@ -273,283 +315,334 @@ public class Board {
 
     // converts the position of this board into a FEN string
     public String getFEN() {
-        // start with empty string, add everything to it on the fly, then return it
-        String str = "";
-        
+        // start with an empty builder, add everything to it on the fly, then return it
+        StringBuilder str = new StringBuilder();
+
         // FIELD 1 - piece placements
-        int emptyCount = 0;  // current streak of empty squares 
+        int emptyCount = 0;  // current streak of empty squares
         for (int i = 0; i < 8; i++) {
             emptyCount = 0;
             for (int j = 0; j < 8; j++) {
-                // Piece t = this.tiles[i][j];  // shorthand shortcut
-                Piece t = this.pieceAt(j, 7-i);
+                final int code = this.pieceCodeAt(Bitboards.toIndex(j, 7-i));
 
-                if (t.getType() == PieceType.empty) {
+                if (code == EMPTY) {
                     emptyCount++;
                 } else {
                     if (emptyCount != 0) {
                         // print the number of empty squares and reset the count when non-empty found
-                        str += Integer.toString(emptyCount);
+                        str.append(emptyCount);
                         emptyCount = 0;
                     }
-                    // actual piece encountered, print its letter representation (pnbrqk)
-                    char pieceChar;
-                    switch (t.getType()) {
-                        case pawn:   pieceChar = 'p'; break;
-                        case knight: pieceChar = 'n'; break;
-                        case bishop: pieceChar = 'b'; break;
-                        case rook:   pieceChar = 'r'; break;
-                        case queen:  pieceChar = 'q'; break;
-                        case king:   pieceChar = 'k'; break;
-                        default:     pieceChar = '?';  // this should never happen
-                    }
-
-                    // make uppercase if white
-                    if (t.getColour() == Colour.White) pieceChar = Character.toUpperCase(pieceChar);
-
-                    str += pieceChar;
+                    // actual piece encountered, print its letter representation (pnbrqk, uppercase if white)
+                    str.append(pieceChars.charAt(code));
                 }
             }
-            if (emptyCount != 0) str += Integer.toString(emptyCount);  // print emptycount if needed at row end
-            str += "/";  // rank seperators
+            if (emptyCount != 0) str.append(emptyCount);  // print emptycount if needed at row end
+            str.append('/');  // rank seperators
         }
 
         // remove the trailing '/'
-        str = str.substring(0,str.length()-1);
+        str.setLength(str.length() - 1);
 
 
         // FIELD 2 - active colour
-        str += " ";
-        if (this.sideToMove == Colour.White) str += "w";
-        else str += "b";
+        str.append(" ");
+        if (this.sideToMove == Colour.White) str.append("w");
+        else str.append("b");
 
 
         // FIELD 3 - castling options
-        str += " ";
-        boolean noCastling = true;
-        if (this.canCastle[1][1]) {str += "K"; noCastling = false;}
-        if (this.canCastle[1][0]) {str += "Q"; noCastling = false;}
-        if (this.canCastle[0][1]) {str += "k"; noCastling = false;}
-        if (this.canCastle[0][0]) {str += "q"; noCastling = false;}
-        if (noCastling) str += "-";
+        str.append(" ");
+        if ((this.castlingRights & CASTLE_WHITE_SHORT) != 0) str.append("K");
+        if ((this.castlingRights & CASTLE_WHITE_LONG) != 0) str.append("Q");
+        if ((this.castlingRights & CASTLE_BLACK_SHORT) != 0) str.append("k");
+        if ((this.castlingRights & CASTLE_BLACK_LONG) != 0) str.append("q");
+        if (this.castlingRights == 0) str.append("-");
 
 
         // FIELD 4 - en passant target
-        str += " ";
-        if (!this.enPassantTarget.isInBounds()) str += "-";
-        else str += this.enPassantTarget.toString();
+        str.append(" ");
+        if (this.enPassantSquare == -1) str.append("-");
+        else str.append(Bitboards.toCoord(this.enPassantSquare).toString());
 
         // FIELD 5 - halfmove
-        str += " " + this.halfmove;
+        str.append(' ').append(this.halfmove);
 
         // FIELD 6 - fullmove
-        str += " " + this.move;
+        str.append(' ').append(this.move);
 
-        return str;
+        return str.toString();
     }
 
-    
+
     // wrapper for the below function
     public Piece pieceAt(int x, int y) {
         return this.pieceAt(new Coord(x, y));
     }
-    
+
     // returns the piece on the board at given coord
     public Piece pieceAt(Coord coord) {
-        Colour colour;
-        PieceType pieceType = PieceType.empty;
-        
-        // determine the colour of the piece
-        if (Bitboards.match(Bitboards.whiteSquares(this.bitboards), coord)) {
-            // there is a white piece here
-            colour = Colour.White;
-        } else if (Bitboards.match(Bitboards.blackSquares(this.bitboards), coord)) {
-            // there is a black piece here
-            colour = Colour.Black;
-        } else {
+        int code = this.pieceCodeAt(Bitboards.toIndex(coord));
+        if (code == EMPTY) {
             // empty square, return new empty piece
             return new Piece(Colour.None, PieceType.empty, coord, this);
         }
 
-        // iterate through bitboards of appropriate colour to determine piecetype
-        int offset = (colour == Colour.White ? 0 : 6);
-        for (int i = offset; i < 6+offset; i++) {
-            if (Bitboards.match(this.bitboards[i], coord)) {
-                pieceType = PieceType.values()[i-offset];
-                // System.out.println(colour + " " + pieceType + " @ " + coord);
-                break;
-            }
-        }
-        
-        if (pieceType == PieceType.empty) {
-            // something went wrong, couldnt match piece to any of the bitboards
-            // System.out.println("ERROR, info below");
-            // for (long b : this.bitboards) System.out.println(Long.toBinaryString(b));
-            // System.out.println("coord " + coord + " (index " + Bitboards.toIndex(coord) + ") " + "colour " + colour);
-            // System.out.println(Long.toBinaryString(Bitboards.whiteSquares(this.bitboards)));
-            // System.out.println(Long.toBinaryString(Bitboards.blackSquares(this.bitboards)));
-            throw new RuntimeException("Board.pieceAt() bitboard error");
-        }
-        
-        return new Piece(colour, pieceType, coord, this);
+        return new Piece(code < 6 ? Colour.White : Colour.Black, PieceType.values()[code % 6], coord, this);
+    }
+
+    // returns the piece code (bitboard index) of the piece on the given square, or EMPTY
+    public int pieceCodeAt(int index) {
+        return this.mailbox[index];
     }
-    
+
     public void setPieceAt(Coord coord, Piece piece) {
         // firstly we need to make this square empty on all bitboards
-        for (int i = 0; i < this.bitboards.length; i++) {
-            this.bitboards[i] = Bitboards.unsetBit(this.bitboards[i], Bitboards.toIndex(coord));
-        }
-        
-        // also handle this.tiles
-        // this.tiles[7-coord.getY()][coord.getX()] = new Piece(Colour.None, PieceType.empty, coord, this);
-        
+        int index = Bitboards.toIndex(coord);
+        this.clearSquare(index);
+
         // if we are setting this square to be empty, we are already done
-        if (piece.getType() == PieceType.empty || piece.getColour() == Colour.None) {
-            return;
-        }
-        
-        // next we are going to set the bit on the appropriate bitboard
-        
-        // determine which bitboard needs to be modified
-        int pieceTypeIndex = -1;
-        for (int i = 0; i < PieceType.values().length-1; i++) {
-            if (piece.getType() == PieceType.values()[i]) {
-                pieceTypeIndex = i;
-                break;
-            }
+        if (piece.getType() != PieceType.empty && piece.getColour() != Colour.None) {
+            this.putPiece((piece.getColour() == Colour.White ? 0 : 6) + piece.getType().ordinal(), index);
         }
-        
-        if (pieceTypeIndex == -1) throw new RuntimeException("unable to determine PieceType");
-        
-        int offset = (piece.getColour() == Colour.White ? 0 : 6);  // colour-based offset into this.bitboards
-        offset += pieceTypeIndex;  // final index of this.bitboards to modify
-        
-        // set the appropriate bit in appropriate bitboard
-        this.bitboards[offset] = Bitboards.setBit(this.bitboards[offset], Bitboards.toIndex(coord));
-        
-        // update controlled squares bitboards
-        this.checkControlledSquares();
     }
 
     public void removePieceAt(Coord coord) {
-        // bitboards
-        for (int i = 0; i < this.bitboards.length; i++) {
-            this.bitboards[i] = Bitboards.unsetBit(this.bitboards[i], Bitboards.toIndex(coord));
-        }
-        
-        // update controlled squares bitboards
-        this.checkControlledSquares();
+        this.clearSquare(Bitboards.toIndex(coord));
     }
 
-    public boolean isSquareAttacked(Coord atCoord, Colour byColour) {
-        return Bitboards.match(this.bitboards[byColour == Colour.White ? 12 : 13], atCoord);
-    }
-
-    // only to be used for detection of checks, not intended for showing only fully legal moves
-    private void checkControlledSquares() {
-        // reset existing controlled square bitboards
-        this.bitboards[12] = 0;
-        this.bitboards[13] = 0;
-
-        // handle pawn attacks all at once with masks
-        this.bitboards[12] |= Bitboards.pawnAttacksL(this.bitboards[12], true);
-        this.bitboards[12] |= Bitboards.pawnAttacksR(this.bitboards[12], true);
-        this.bitboards[13] |= Bitboards.pawnAttacksL(this.bitboards[13], false);
-        this.bitboards[13] |= Bitboards.pawnAttacksR(this.bitboards[13], false);
-
-        // handle knights
-        for (int i = 0; i < 64; i++) {
-            for (int j = 0; j < 2; j++) {
-                if (Bitboards.match(this.bitboards[1+(6*j)], i))
-                this.bitboards[12+j] |= Bitboards.knightMoveMask(i);
-            }
-        }
-
-        // handle kings
-        this.bitboards[12] |= Bitboards.kingMoveMask(Bitboards.toIndex(this.getKing(Colour.White).getCoord()));
-        this.bitboards[13] |= Bitboards.kingMoveMask(Bitboards.toIndex(this.getKing(Colour.Black).getCoord()));
-
-        // iterate over every square
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                // set relevant bit for each square attacked for each colour
-                for (int k = 0; k < 2; k++) {
-                    if (this.checkIfSquareControlled(new Coord(i, j), k==0?Colour.White:Colour.Black)) {
-                        this.bitboards[k==0?12:13] = Bitboards.setBit(this.bitboards[k==0?12:13], Bitboards.toIndex(i, j));
-                    }
-                }
-            }
-        }
+    // low level piece placement, used while making moves. these keep the mailbox, occupancy,
+    // king squares and zobrist key in sync with the bitboards
+    private void putPiece(int code, int index) {
+        this.bitboards[code] = Bitboards.setBit(this.bitboards[code], index);
+        this.mailbox[index] = (byte)code;
+        this.occupancy[code / 6] = Bitboards.setBit(this.occupancy[code / 6], index);
+        if (code % 6 == PieceType.king.ordinal()) this.kingSquares[code / 6] = index;
+        this.zobristKey ^= Zobrist.pieceKeys[code][index];
     }
 
-    // this method only checks for the parts that arent easily 'bitboard-able' - the other moves can be done quickly in parallel
-    private boolean checkIfSquareControlled(Coord atCoord, Colour byColour) {
-        if (byColour == Colour.None) return false; // method should only be called with byColour White or Black
-
-        // iterate over each possible direction a piece can move in
-        for (int i = -1; i <= 1; i++) {
-            for (int j = -1; j <= 1; j++) {
-                if (i == 0 && j == 0) continue;  // cant move to the same square
-                
-                final int cX = atCoord.getX();
-                final int cY = atCoord.getY();
-                Coord c = new Coord(cX + i, cY + j);
+    private void removePiece(int code, int index) {
+        this.bitboards[code] = Bitboards.unsetBit(this.bitboards[code], index);
+        this.mailbox[index] = EMPTY;
+        this.occupancy[code / 6] = Bitboards.unsetBit(this.occupancy[code / 6], index);
+        if (code % 6 == PieceType.king.ordinal()) this.kingSquares[code / 6] = -1;
+        this.zobristKey ^= Zobrist.pieceKeys[code][index];
+    }
 
-                if (!c.isInBounds()) continue;
-                Piece p = this.pieceAt(c);
+    private void clearSquare(int index) {
+        int code = this.pieceCodeAt(index);
+        if (code != EMPTY) this.removePiece(code, index);
+    }
 
-                // firstly, check for king (range of only 1 square)
-                // if (p.getColour() == byColour && p.getType() == PieceType.king) return true;
+    private void movePiece(int code, int from, int to) {
+        final long fromTo = Bitboards.squareMask(from) | Bitboards.squareMask(to);
+        this.bitboards[code] ^= fromTo;
+        this.mailbox[from] = EMPTY;
+        this.mailbox[to] = (byte)code;
+        this.occupancy[code / 6] ^= fromTo;
+        if (code % 6 == PieceType.king.ordinal()) this.kingSquares[code / 6] = to;
+        this.zobristKey ^= Zobrist.pieceKeys[code][from] ^ Zobrist.pieceKeys[code][to];
+    }
 
-                for (int multiplyingFactor = 1; multiplyingFactor < 8; multiplyingFactor++) {
-                    // setup coordinate and piece for this iteration
-                    c = new Coord(cX + (i*multiplyingFactor), cY + (j*multiplyingFactor));
-                    if (!c.isInBounds()) break;
-                    p = this.pieceAt(c);
+    // 64-bit hash of this position, updated incrementally as moves are made and unmade
+    public long getZobristKey() {
+        return this.zobristKey;
+    }
 
-                    // skip over empty squares
-                    if (p.getType() == PieceType.empty) continue;
+    // calculates the zobrist key of this position from scratch, getZobristKey() should always match this
+    public long computeZobristKey() {
+        long key = 0;
+        for (int i = 0; i < 12; i++) {
+            for (long b = this.bitboards[i]; b != 0; b = Bitboards.popLsb(b)) {
+                key ^= Zobrist.pieceKeys[i][Bitboards.lsb(b)];
+            }
+        }
+        key ^= Zobrist.castlingKeys[this.castlingRights];
+        if (this.enPassantSquare != -1) key ^= Zobrist.enPassantKeys[this.enPassantSquare % 8];
+        if (this.sideToMove == Colour.Black) key ^= Zobrist.sideKey;
+        return key;
+    }
+
+    // number of times the current position has occured in this game, including right now.
+    // only positions since the last capture or pawn move can possibly be the same
+    public int getRepetitionCount() {
+        int count = 1;
+        final int earliest = Math.max(0, this.undoCount - this.halfmove);
+        for (int i = this.undoCount - 2; i >= earliest; i -= 2) {
+            if (this.undoKeys[i] == this.zobristKey) count++;
+        }
+        return count;
+    }
+
+    // returns whether playing the given (legal) move would put the other side in check, without making it.
+    // either the moved piece attacks the king from its new square (direct check) or moving it gets out of
+    // the way of one of our sliders (discovered check)
+    public boolean givesCheck(int move) {
+        final int from = PackedMove.from(move);
+        final int to = PackedMove.to(move);
+        final int type = PackedMove.type(move);
+        final int code = this.pieceCodeAt(from);
+        final boolean white = code < 6;
+        final int offset = white ? 0 : 6;
+
+        final int enemyKing = this.kingSquares[white ? 1 : 0];
+        if (enemyKing == -1) return false;  // only happens in test positions
+
+        // occupancy once the move has been played
+        long occupancy = (this.getOccupancy() & ~Bitboards.squareMask(from)) | Bitboards.squareMask(to);
+        if (type == PackedMove.EN_PASSANT) occupancy &= ~Bitboards.squareMask(to + (white ? -8 : 8));
+
+        // the piece that could give direct check, and where from. when castling thats the rook rather than the king
+        int checkerType = (type == PackedMove.PROMOTION) ? PackedMove.promoType(move) : code % 6;
+        int checkerSquare = to;
+        long movedSliders = Bitboards.squareMask(from);
+        if (type == PackedMove.CASTLING) {
+            final boolean shortCastle = to > from;
+            final int rookFrom = shortCastle ? from + 3 : from - 4;
+            checkerType = PieceType.rook.ordinal();
+            checkerSquare = shortCastle ? from + 1 : from - 1;
+            occupancy = (occupancy & ~Bitboards.squareMask(rookFrom)) | Bitboards.squareMask(checkerSquare);
+            movedSliders |= Bitboards.squareMask(rookFrom);
+        }
 
-                    // check for friendly blocking pieces
-                    if (p.getColour() != byColour) break;
-                    
-                    if (p.getType() == PieceType.queen) return true;
+        long directAttacks = 0;
+        switch (PieceType.values()[checkerType]) {
+            case pawn:   directAttacks = Bitboards.pawnAttacks(white ? Colour.White : Colour.Black, checkerSquare); break;
+            case knight: directAttacks = Bitboards.knightAttacks(checkerSquare); break;
+            case bishop: directAttacks = Bitboards.bishopAttacks(checkerSquare, occupancy); break;
+            case rook:   directAttacks = Bitboards.rookAttacks(checkerSquare, occupancy); break;
+            case queen:  directAttacks = Bitboards.queenAttacks(checkerSquare, occupancy); break;
+            default:     break;  // kings can't give check
+        }
+        if (Bitboards.match(directAttacks, enemyKing)) return true;
+
+        // any of our other sliders that can now see the king
+        final long straight = (this.bitboards[offset + 3] | this.bitboards[offset + 4]) & ~movedSliders;
+        final long diagonal = (this.bitboards[offset + 2] | this.bitboards[offset + 4]) & ~movedSliders;
+        return ((Bitboards.rookAttacks(enemyKing, occupancy) & straight) | (Bitboards.bishopAttacks(enemyKing, occupancy) & diagonal)) != 0;
+    }
+
+    // static exchange evaluation: the material the side to move wins (negative if it loses material) by playing
+    // the given move and then letting both sides keep recapturing on the same square with their least valuable
+    // piece, each side being able to stop whenever that's better for them. sliders lined up behind a piece
+    // join in once it has captured (x-rays). pins are ignored
+    // https://www.chessprogramming.org/SEE_-_The_Swap_Algorithm
+    public int see(int move) {
+        final int from = PackedMove.from(move);
+        final int to = PackedMove.to(move);
+        final int type = PackedMove.type(move);
+        if (type == PackedMove.CASTLING) return 0;
+
+        final long[] b = this.bitboards;
+        final long diagonalSliders = b[2] | b[4] | b[8] | b[10];
+        final long straightSliders = b[3] | b[4] | b[9] | b[10];
+
+        int code = this.pieceCodeAt(from);
+        int side = code < 6 ? 1 : 0;  // side to capture next, 0=white, 1=black
+        long occupancy = this.getOccupancy() & ~Bitboards.squareMask(from);
+
+        // material gained by the move itself, and the value of the piece then standing on the square
+        int gain;
+        int onSquare;
+        if (type == PackedMove.EN_PASSANT) {
+            occupancy &= ~Bitboards.squareMask(to + (code < 6 ? -8 : 8));
+            gain = seeValues[PieceType.pawn.ordinal()];
+            onSquare = seeValues[PieceType.pawn.ordinal()];
+        } else {
+            gain = (this.pieceCodeAt(to) == EMPTY) ? 0 : seeValues[this.pieceCodeAt(to) % 6];
+            onSquare = seeValues[code % 6];
+            if (type == PackedMove.PROMOTION) {
+                onSquare = seeValues[PackedMove.promoType(move)];
+                gain += onSquare - seeValues[PieceType.pawn.ordinal()];
+            }
+        }
 
-                    // check for non-sliding blocking pieces
-                    if (p.getType() != PieceType.bishop && p.getType() != PieceType.rook) break;
+        long attackers = this.attackersTo(to, occupancy) & occupancy;
+        int depth = 0;
+        this.seeGains[0] = gain;
+
+        while (true) {
+            // what the side that just captured has gained if its piece gets taken back and the exchange then stops
+            depth++;
+            this.seeGains[depth] = onSquare - this.seeGains[depth - 1];
+            if (depth == this.seeGains.length - 1) break;
+
+            // least valuable piece of the side to capture next
+            final long sideAttackers = attackers & this.occupancy[side];
+            if (sideAttackers == 0) break;
+            int attackerType = 0;
+            while ((sideAttackers & b[side * 6 + attackerType]) == 0) attackerType++;
+
+            // capturing might reveal a slider behind it
+            occupancy &= ~Long.lowestOneBit(sideAttackers & b[side * 6 + attackerType]);
+            attackers |= (Bitboards.bishopAttacks(to, occupancy) & diagonalSliders) | (Bitboards.rookAttacks(to, occupancy) & straightSliders);
+            attackers &= occupancy;
+
+            onSquare = seeValues[attackerType];
+            side ^= 1;
+        }
 
-                    if (i != 0 && j != 0) {
-                        // diagonal movement (bishop)
-                        if (p.getType() == PieceType.bishop) return true;
-                    } else {
-                        // horizontal/vertical movement (rook)
-                        if (p.getType() == PieceType.rook) return true;
-                    }
+        // work back through the exchange, each side choosing between capturing and stopping. the last gain is
+        // dropped as nothing could actually take back at that point
+        while (--depth > 0) {
+            this.seeGains[depth - 1] = -Math.max(-this.seeGains[depth - 1], this.seeGains[depth]);
+        }
+        return this.seeGains[0];
+    }
 
-                    // if no check was found and square isnt empty, this piece will block the rest
-                    break;
-                }
-            }
+    public boolean isSquareAttacked(Coord atCoord, Colour byColour) {
+        return this.isSquareAttacked(Bitboards.toIndex(atCoord), byColour);
+    }
+
+    public boolean isSquareAttacked(int index, Colour byColour) {
+        if (index == -1) return false;  // e.g. a missing king's square, only happens in test positions
+        return (this.attackersTo(index, this.getOccupancy()) & this.getOccupancy(byColour)) != 0;
+    }
+
+    // returns a bitboard of all pieces (of both colours) attacking the given square, with sliding
+    // pieces being blocked according to the given occupancy rather than the actual board
+    public long attackersTo(int index, long occupancy) {
+        final long[] b = this.bitboards;
+        // a pawn attacks this square if a pawn of the other colour on this square would attack it
+        return (Bitboards.pawnAttacks(Colour.Black, index) & b[0])
+             | (Bitboards.pawnAttacks(Colour.White, index) & b[6])
+             | (Bitboards.knightAttacks(index) & (b[1] | b[7]))
+             | (Bitboards.kingAttacks(index) & (b[5] | b[11]))
+             | (Bitboards.bishopAttacks(index, occupancy) & (b[2] | b[4] | b[8] | b[10]))
+             | (Bitboards.rookAttacks(index, occupancy) & (b[3] | b[4] | b[9] | b[10]));
+    }
+
+    // returns a bitboard of every square attacked by the given colour, this is relatively expensive
+    // so should only be used where the full picture is needed (e.g. evaluation) rather than for single squares
+    public long getAttackedSquares(Colour byColour) {
+        final int offset = (byColour == Colour.White ? 0 : 6);
+        final long occupancy = this.getOccupancy();
+        long attacks = 0;
+
+        final boolean forwards = byColour == Colour.White;
+        attacks |= Bitboards.pawnAttacksL(this.bitboards[offset], forwards) | Bitboards.pawnAttacksR(this.bitboards[offset], forwards);
+        for (long b = this.bitboards[offset+1]; b != 0; b = Bitboards.popLsb(b)) {
+            attacks |= Bitboards.knightAttacks(Bitboards.lsb(b));
+        }
+        for (long b = this.bitboards[offset+2] | this.bitboards[offset+4]; b != 0; b = Bitboards.popLsb(b)) {
+            attacks |= Bitboards.bishopAttacks(Bitboards.lsb(b), occupancy);
+        }
+        for (long b = this.bitboards[offset+3] | this.bitboards[offset+4]; b != 0; b = Bitboards.popLsb(b)) {
+            attacks |= Bitboards.rookAttacks(Bitboards.lsb(b), occupancy);
+        }
+        for (long b = this.bitboards[offset+5]; b != 0; b = Bitboards.popLsb(b)) {
+            attacks |= Bitboards.kingAttacks(Bitboards.lsb(b));
         }
 
-        return false;
+        return attacks;
     }
 
     // returns the piece object for the king of a given colour.
     // assumes that a position is valid and such has exactly one
     // king of each colour on the board; no more and no less
     public Piece getKing(Colour colour) {
-        // linear search over each square to check for king of given colour
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                if (this.pieceAt(i, j).getType() == PieceType.king) {
-                    if (this.pieceAt(i, j).getColour() == colour) {
-                        // piece was found, stop searching and return it
-                        return this.pieceAt(i, j);
-                    }
-                }
-            }
-        }
+        int index = this.getKingSquare(colour);
+        if (index != -1) return this.pieceAt(Bitboards.toCoord(index));
 
         // this code will only be reached if no valid king piece was found
         // returns a placeholder empty piece. any code calling this function should
@@ -558,86 +651,241 @@ public class Board {
         return new Piece(Colour.None, PieceType.empty, new Coord(-1, -1), this);
     }
 
+    // returns the square index of the king of a given colour, or -1 if there isn't one
+    public int getKingSquare(Colour colour) {
+        return this.kingSquares[colour == Colour.White ? 0 : 1];
+    }
+
     // simple check used to check if en passant is possible on a given square
     public boolean isSquareEnPassantable(Coord coord) {
         if (!coord.isInBounds()) return false;
-        return this.enPassantTarget.equals(coord);
-    }
+        return this.enPassantSquare == Bitboards.toIndex(coord);
+    }
+
+    // plays a move on this board in place, it can later be taken back with unmakeMove()
+    public void makeMove(Move m) {
+        this.makeMove(m.toPacked());
+    }
+
+    // plays a packed move (see PackedMove) on this board in place, it can later be taken back with unmakeMove().
+    // the move is assumed to be at least pseudo-legal in this position
+    public void makeMove(int move) {
+        this.growUndoStack();
+
+        final int from = PackedMove.from(move);
+        final int to = PackedMove.to(move);
+        final int type = PackedMove.type(move);
+        final int code = this.pieceCodeAt(from);
+        final boolean white = code < 6;
+        final boolean isPawn = code % 6 == PieceType.pawn.ordinal();
+
+        // the pawn taken en passant sits behind the target square
+        final int captureSquare = (type == PackedMove.EN_PASSANT) ? to + (white ? -8 : 8) : to;
+        final int captured = (type == PackedMove.CASTLING) ? EMPTY : this.pieceCodeAt(captureSquare);
+
+        // record everything the move will overwrite before touching the board
+        this.undoMoves[this.undoCount] = move;
+        this.undoCaptured[this.undoCount] = captured;
+        this.undoEnPassant[this.undoCount] = this.enPassantSquare;
+        this.undoCastling[this.undoCount] = this.castlingRights;
+        this.undoHalfmove[this.undoCount] = this.halfmove;
+        this.undoKeys[this.undoCount] = this.zobristKey;
+        this.undoCount++;
+
+        // move the pieces
+        if (captured != EMPTY) this.removePiece(captured, captureSquare);
+        if (type == PackedMove.PROMOTION) {
+            this.removePiece(code, from);
+            this.putPiece((white ? 0 : 6) + PackedMove.promoType(move), to);
+        } else {
+            this.movePiece(code, from, to);
+        }
+        if (type == PackedMove.CASTLING) {
+            // the rook moves to the square the king passed over
+            boolean shortCastle = to > from;
+            this.movePiece(white ? 3 : 9, shortCastle ? from + 3 : from - 4, shortCastle ? from + 1 : from - 1);
+        }
 
-    public void setEnPassantSquare(Coord coord) {
-        this.enPassantTarget = coord;
-    }
+        // reset halfmove clock for 50 move rule on pawn moves and captures
+        if (isPawn || captured != EMPTY) this.halfmove = 0;
+        else this.halfmove++;
 
-    public void incMoveCount() {
-        // now is the perfect time to store this position in the repetition table
-        Integer repetitions = this.repetitionTable.get(this.getStrippedFEN());
-        this.repetitionTable.put(this.getStrippedFEN(), (repetitions == null ? 1 : repetitions + 1));
+        // update castling possibilities
+        this.zobristKey ^= Zobrist.castlingKeys[this.castlingRights];
+        this.castlingRights &= castlingRightsMask[from] & castlingRightsMask[to];
+        this.zobristKey ^= Zobrist.castlingKeys[this.castlingRights];
+
+        // set appropriate en passant square if this is a pawn moving 2 squares
+        if (this.enPassantSquare != -1) this.zobristKey ^= Zobrist.enPassantKeys[this.enPassantSquare % 8];
+        if (isPawn && Math.abs(to - from) == 16) this.enPassantSquare = (from + to) / 2;
+        else this.enPassantSquare = -1;
+        if (this.enPassantSquare != -1) this.zobristKey ^= Zobrist.enPassantKeys[this.enPassantSquare % 8];
 
         // switch colour due to move
-        if (this.sideToMove == Colour.White) this.sideToMove = Colour.Black;
-        else this.sideToMove = Colour.White;
-        this.halfmove++;  // inc halfmove counter by 1
-        if (this.sideToMove == Colour.White) this.move++;  // inc fullmove count if necessary
+        this.zobristKey ^= Zobrist.sideKey;
+        if (this.sideToMove == Colour.White) {
+            this.sideToMove = Colour.Black;
+        } else {
+            this.sideToMove = Colour.White;
+            this.move++;  // inc fullmove count after black moves
+        }
+
+        // cached values (keyed by turn) would be wrong for sibling positions, discard them
+        this.gameStateLastUpdate = -1;
+        this.legalMovesLastUpdate = -1;
     }
 
-    public void resetHalfMoveCount() {
+    // passes the turn to the other side without moving anything (a 'null move'), for null move pruning in the
+    // search. it can later be taken back with unmakeNullMove(), not unmakeMove()
+    public void makeNullMove() {
+        this.growUndoStack();
+
+        this.undoMoves[this.undoCount] = PackedMove.NONE;
+        this.undoCaptured[this.undoCount] = EMPTY;
+        this.undoEnPassant[this.undoCount] = this.enPassantSquare;
+        this.undoCastling[this.undoCount] = this.castlingRights;
+        this.undoHalfmove[this.undoCount] = this.halfmove;
+        this.undoKeys[this.undoCount] = this.zobristKey;
+        this.undoCount++;
+
+        // the en passant capture is only possible straight after the double push
+        if (this.enPassantSquare != -1) this.zobristKey ^= Zobrist.enPassantKeys[this.enPassantSquare % 8];
+        this.enPassantSquare = -1;
+
+        // positions from before a null move can't really be repeated after it, so stop repetition checks here
         this.halfmove = 0;
+
+        this.zobristKey ^= Zobrist.sideKey;
+        if (this.sideToMove == Colour.White) {
+            this.sideToMove = Colour.Black;
+        } else {
+            this.sideToMove = Colour.White;
+            this.move++;
+        }
+
+        this.gameStateLastUpdate = -1;
+        this.legalMovesLastUpdate = -1;
     }
 
-    // removes the possibility of castling for a certain colour in a certain direction
-    // we only need to remove this as it starts enabled and cant be reenabled
-    // colour: 0=black, 1=white
-    // type:   0=long,  1=short
-    // return true means success, false means failure
-    public boolean removeCastling(Colour colour, int type) {
-        if (colour == Colour.None) {
-            // invalid parameter
-            return false;
+    // takes back the last move played with makeNullMove()
+    public void unmakeNullMove() {
+        if (this.undoCount == 0 || this.undoMoves[this.undoCount - 1] != PackedMove.NONE) throw new RuntimeException("no null move to unmake");
+
+        this.undoCount--;
+
+        if (this.sideToMove == Colour.White) {
+            this.sideToMove = Colour.Black;
+            this.move--;
+        } else {
+            this.sideToMove = Colour.White;
         }
 
-        // update castling possibilities
-        this.canCastle[colour == Colour.White ? 1 : 0][type] = false;
+        this.enPassantSquare = this.undoEnPassant[this.undoCount];
+        this.halfmove = this.undoHalfmove[this.undoCount];
+        this.zobristKey = this.undoKeys[this.undoCount];
 
-        return true;
+        this.gameStateLastUpdate = -1;
+        this.legalMovesLastUpdate = -1;
+    }
+
+    // grows the undo stack if its full, this only happens in very long games
+    private void growUndoStack() {
+        if (this.undoCount < this.undoMoves.length) return;
+
+        int newSize = 2 * this.undoMoves.length;
+        this.undoMoves = Arrays.copyOf(this.undoMoves, newSize);
+        this.undoCaptured = Arrays.copyOf(this.undoCaptured, newSize);
+        this.undoEnPassant = Arrays.copyOf(this.undoEnPassant, newSize);
+        this.undoCastling = Arrays.copyOf(this.undoCastling, newSize);
+        this.undoHalfmove = Arrays.copyOf(this.undoHalfmove, newSize);
+        this.undoKeys = Arrays.copyOf(this.undoKeys, newSize);
+    }
+
+    // takes back the last move played with makeMove()
+    public void unmakeMove() {
+        if (this.undoCount == 0) throw new RuntimeException("no move to unmake");
+
+        this.undoCount--;
+        final int move = this.undoMoves[this.undoCount];
+        final int captured = this.undoCaptured[this.undoCount];
+        final int from = PackedMove.from(move);
+        final int to = PackedMove.to(move);
+        final int type = PackedMove.type(move);
+
+        // switch colour back
+        if (this.sideToMove == Colour.White) {
+            this.sideToMove = Colour.Black;
+            this.move--;
+        } else {
+            this.sideToMove = Colour.White;
+        }
+        final boolean white = this.sideToMove == Colour.White;
+
+        // move the pieces back
+        if (type == PackedMove.PROMOTION) {
+            this.removePiece((white ? 0 : 6) + PackedMove.promoType(move), to);
+            this.putPiece(white ? 0 : 6, from);
+        } else {
+            this.movePiece(this.pieceCodeAt(to), to, from);
+        }
+        if (type == PackedMove.CASTLING) {
+            boolean shortCastle = to > from;
+            this.movePiece(white ? 3 : 9, shortCastle ? from + 1 : from - 1, shortCastle ? from + 3 : from - 4);
+        }
+        if (captured != EMPTY) {
+            int captureSquare = (type == PackedMove.EN_PASSANT) ? to + (white ? -8 : 8) : to;
+            this.putPiece(captured, captureSquare);
+        }
+
+        this.enPassantSquare = this.undoEnPassant[this.undoCount];
+        this.castlingRights = this.undoCastling[this.undoCount];
+        this.halfmove = this.undoHalfmove[this.undoCount];
+        // restoring the key directly also undoes the piece key changes made above
+        this.zobristKey = this.undoKeys[this.undoCount];
+
+        this.gameStateLastUpdate = -1;
+        this.legalMovesLastUpdate = -1;
+    }
+
+    // fills the given list with all legal moves in this position
+    public void generateLegalMoves(MoveList moves) {
+        MoveGeneration.generateLegal(this, moves);
+    }
+
+    // fills the given list with the legal moves a quiescence search looks at: captures and promotions, or every
+    // legal move when in check (in check the generator only produces moves that get out of it anyway)
+    public void generateQuiescenceMoves(MoveList moves) {
+        MoveGeneration.generateLegal(this, moves, this.isCheck() ? MoveGeneration.ALL : MoveGeneration.NOISY);
     }
 
     public long getLegalMoveCount() {
-        return this.getLegalMoves().size();
+        this.generateLegalMoves(this.scratchMoveList);
+        return this.scratchMoveList.size();
     }
 
     public ArrayList<Move> getLegalMoves() {
         // return 'cached' value if position hasnt changed
         int currentTurn = 2*this.move + (this.sideToMove == Colour.Black ? 1 : 0);
-        if (currentTurn != this.legalMovesLastUpdate || this.legalMoves == null) {
-            this.legalMovesLastUpdate = currentTurn;
-        } else {
+        if (currentTurn == this.legalMovesLastUpdate && this.legalMoves != null) {
             return this.legalMoves;
         }
 
+        this.generateLegalMoves(this.scratchMoveList);
         ArrayList<Move> legalMoves = new ArrayList<Move>();
-        // iterate over all pieces
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                // filter for pieces of appropriate colour based on turn
-                if (this.pieceAt(i, j).getType() != PieceType.empty && this.pieceAt(i, j).getColour() == this.sideToMove) {
-                    // add all of this piece's legal moves to the legal moves for the board
-                    legalMoves.addAll(this.pieceAt(i, j).getLegalMoves());
-                }
-            }
+        for (int i = 0; i < this.scratchMoveList.size(); i++) {
+            legalMoves.add(MoveFactory.fromPacked(this.scratchMoveList.get(i), this));
         }
 
         // a temporary variable is written to above and then copied here to maximise atomicity and prevent any race conditions
         this.legalMoves = legalMoves;
+        this.legalMovesLastUpdate = currentTurn;
 
         return this.legalMoves;
     }
 
-    public void addMoveHistory(Move m) {
-        this.moveHistory.add(m);
-    }
-
-    public ArrayList<Move> getMoveHistory() {
-        return this.moveHistory;
+    // returns all moves made on this board so far, as packed moves (see PackedMove)
+    public int[] getMoveHistory() {
+        return Arrays.copyOf(this.undoMoves, this.undoCount);
     }
 
     public int getMoveNumber() {
@@ -647,48 +895,42 @@ public class Board {
     public int getHalfMoveNumber() {
         return this.halfmove;
     }
-    
-    public boolean[][] getCastlingPossibilities() {
-        return this.canCastle;
+
+    // returns a combination of CASTLE_* bits
+    public int getCastlingRights() {
+        return this.castlingRights;
     }
 
     public Colour getSideToMove() {
         return this.sideToMove;
     }
 
-    public Coord getEnPassantSquare() {
-        return this.enPassantTarget;
-    }
-
-    public HashMap<String, Integer> getRepetitionTable() {
-        return this.repetitionTable;
+    // returns the square index of the en passant target, or -1 if there isn't one
+    public int getEnPassantSquare() {
+        return this.enPassantSquare;
     }
 
     public void load(Board b) {
         // copy everything about the position itself
-        // this.loadFEN(b.getFEN());
         this.bitboards = b.getBitboards().clone();
+        this.mailbox = b.mailbox.clone();
+        this.occupancy = b.occupancy.clone();
+        this.kingSquares = b.kingSquares.clone();
         this.sideToMove = b.getSideToMove();
-        for (int i = 0; i < 2; i++) {
-            for (int j = 0; j < 2; j++) {
-                this.canCastle[i][j] = b.getCastlingPossibilities()[i][j];
-            }
-        }
+        this.castlingRights = b.getCastlingRights();
         this.move = b.getMoveNumber();
         this.halfmove = b.getHalfMoveNumber();
-        this.enPassantTarget = b.getEnPassantSquare();
-        
-        // copy over move history
-        this.moveHistory = new ArrayList<Move>();
-        for (Move m : b.getMoveHistory()) {
-            this.moveHistory.add(m);
-        }
-
-        // copy over repetition table
-        this.repetitionTable = new HashMap<String, Integer>();
-        for (String s : b.getRepetitionTable().keySet()) {
-            this.repetitionTable.put(s, b.getRepetitionTable().get(s));
-        }
+        this.enPassantSquare = b.getEnPassantSquare();
+        this.zobristKey = b.getZobristKey();
+
+        // copy over undo stack (and so move history)
+        this.undoMoves = b.undoMoves.clone();
+        this.undoCaptured = b.undoCaptured.clone();
+        this.undoEnPassant = b.undoEnPassant.clone();
+        this.undoCastling = b.undoCastling.clone();
+        this.undoHalfmove = b.undoHalfmove.clone();
+        this.undoKeys = b.undoKeys.clone();
+        this.undoCount = b.undoCount;
 
         // discard any currently cached values as they as probably invalid now
         this.gameStateLastUpdate = -1;
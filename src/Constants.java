@@ -9,6 +9,47 @@ public class Constants {
 
     public static final int MAX_MINIMAX_DEPTH = 50;
 
+    public static final int MAX_SEARCH_PLY = 128;
+
+    public static final int ASPIRATION_WINDOW = 25;
+    public static final int ASPIRATION_MIN_DEPTH = 4;
+
+    public static final int NULL_MOVE_MIN_DEPTH = 3;
+    public static final int NULL_MOVE_REDUCTION = 2;
+    public static final int NULL_MOVE_REDUCTION_DIVISOR = 4;
+
+    public static final int LMR_MIN_DEPTH = 3;
+    public static final int LMR_MIN_MOVE_NUMBER = 3;
+    public static final double LMR_BASE = 0.75;
+    public static final double LMR_DIVISOR = 2.25;
+
+    public static final int HISTORY_MAX = 16384;
+    public static final int ORDER_CAPTURE_BONUS = 100;
+    public static final int ORDER_KILLER_BONUS = 95;
+    public static final int ORDER_HISTORY_MAX_BONUS = 80;
+    public static final int MAX_MOVES_PER_POSITION = 256;
+
+    public static final int UNDO_STACK_INITIAL_SIZE = 256;
+
+    public static final int TIME_MOVES_LEFT_ESTIMATE = 40;
+    public static final int TIME_MIN_MOVES_LEFT = 10;
+    public static final int TIME_MAX_USAGE_PERCENT = 60;
+    public static final int TIME_HARD_LIMIT_FACTOR = 4;
+    public static final int TIME_ADJUST_MIN_DEPTH = 4;
+    public static final double TIME_UNSTABLE_FACTOR = 1.3;
+    public static final int TIME_SCORE_DROP = 30;
+    public static final double TIME_SCORE_DROP_FACTOR = 1.5;
+    public static final int TIME_CHECK_INTERVAL = 1024;  // nodes, must be a power of two
+    public static final int DEFAULT_MOVE_OVERHEAD_MS = 30;
+    public static final int MAX_MOVE_OVERHEAD_MS = 5000;
+
+    public static final int TT_DEFAULT_SIZE_MB = 16;
+    public static final int TT_MAX_SIZE_MB = 1024;
+
+    public static final int MAX_SEARCH_THREADS = 256;
+
+    public static final int MAX_MULTI_PV = 64;
+
     public static final int EVAL_HIGH_HALFMOVE_COUNT = 30;
     public static final int EVAL_DOUBLED_PAWN_PENALTY = 20;
     public static final int EVAL_CONTROLLED_SQUARE_BONUS = 5;
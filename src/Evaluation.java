@@ -3,6 +3,12 @@
 // however, we also need to handle some other types of eval: 1-0 (white wins), M8 (white has forced checkmate in 8)
 
 public class Evaluation {
+    // int form of a won game, see toScore(). any score beyond SCORE_MATE_BOUND is a (forced) win,
+    // and SCORE_INFINITE is beyond any real score so is used for search bounds
+    public final static int SCORE_WIN = 1000000;
+    public final static int SCORE_MATE_BOUND = SCORE_WIN - Constants.MAX_FORCED_MATE_DEPTH;
+    public final static int SCORE_INFINITE = SCORE_WIN + 1;
+
     long centipawnsMagnitude;
     boolean whiteIsBetter;
 
@@ -69,6 +75,36 @@ public class Evaluation {
         }
     }
 
+    // convert to a compact int, ordered the same way as toLong() (though very large normal evals are capped).
+    // this is used where evaluations need to be stored, e.g. the transposition table
+    public int toScore() {
+        if (this.isGameOver) {
+            if (this.winningColour == Colour.None) return 0;
+            return SCORE_WIN * (this.winningColour == Colour.White ? 1 : -1);
+        } else if (this.isForcedCheckmate) {
+            return (SCORE_WIN - Math.min(this.movesToForcedCheckmate, Constants.MAX_FORCED_MATE_DEPTH)) * (this.whiteIsBetter ? 1 : -1);
+        } else {
+            return (int)Math.min(this.centipawnsMagnitude, SCORE_WIN-Constants.MAX_FORCED_MATE_DEPTH-1) * (this.whiteIsBetter ? 1 : -1);
+        }
+    }
+
+    // opposite of toScore(), drawn games come back as a normal +0.0 eval
+    public static Evaluation fromScore(int score) {
+        if (Math.abs(score) == SCORE_WIN) return new Evaluation(score > 0 ? Colour.White : Colour.Black);
+        if (Math.abs(score) >= SCORE_MATE_BOUND) return new Evaluation(SCORE_WIN - Math.abs(score), score > 0);
+        return new Evaluation(score);
+    }
+
+    // uci form of an int score (see toScore()) from the given side's point of view,
+    // e.g. "cp 25" or "mate -3" (getting mated in 3 moves, not plies)
+    public static String toUCIScore(int score, Colour perspective) {
+        if (perspective == Colour.Black) score = -score;
+        if (Math.abs(score) < SCORE_MATE_BOUND) return "cp " + score;
+
+        final int movesToMate = (SCORE_WIN - Math.abs(score) + 1) / 2;
+        return "mate " + (score > 0 ? movesToMate : -movesToMate);
+    }
+
     // convert to string for debugging and console printing etc.
     public String toString() {
         int type = 0;
@@ -88,27 +124,4 @@ public class Evaluation {
                 return "";
         }
     }
-
-    // used in search function to 'bring up a level' e.g. 1-0 -> +M1, +M5 -> +M6
-    public Evaluation tick() {
-        if (this.isForcedCheckmate) {
-            // increment moves until forced checkmate
-            this.movesToForcedCheckmate++;
-        } else if (this.isGameOver) {
-            // draw should just return +0.0
-            if (winningColour == Colour.None) {
-                this.centipawnsMagnitude = 0;
-                this.whiteIsBetter = true;
-                this.isGameOver = false;
-            }
-
-            // change eval to mate in 1 equivalent
-            this.isForcedCheckmate = true;
-            this.movesToForcedCheckmate = 1;
-            this.whiteIsBetter = (this.winningColour == Colour.White);
-            this.isGameOver = false;
-        }
-
-        return this;
-    }
 }
@@ -1,5 +1,17 @@
+import java.util.concurrent.atomic.AtomicLong;
+
 public class HeuristicEval {
-    private static int totalPositionsEvaluated = 0;
+    // only counted in self-test mode, atomic as helper search threads evaluate at the same time
+    private static final AtomicLong totalPositionsEvaluated = new AtomicLong();
+
+    // piece values and piece-square tables indexed by PieceType ordinal (kings have no material value,
+    // and their table depends on the game phase so is picked separately)
+    private final static int[] pieceValues = {
+        Constants.VALUE_PAWN, Constants.VALUE_KNIGHT, Constants.VALUE_BISHOP, Constants.VALUE_ROOK, Constants.VALUE_QUEEN, 0
+    };
+    private final static int[][][] pieceSquareTables = {
+        Constants.PST_PAWN, Constants.PST_KNIGHT, Constants.PST_BISHOP, Constants.PST_ROOK, Constants.PST_QUEEN
+    };
 
     // small helper function that queries the pst values, maps coords, and flips if necessary
     private static final int getPstValue(int x, int y, int[][] table, boolean flip) {
@@ -16,69 +28,30 @@ public class HeuristicEval {
         return table[i][j];
     }
 
-    public static Evaluation evaluate(Board position) {
+    // static evaluation of a position in centipawns from white's point of view. this doesn't check whether
+    // the game is over, that is left to the search
+    public static int evaluate(Board position) {
         // if we are running in self-test mode right now, show some debug info
-        HeuristicEval.totalPositionsEvaluated++;
-        if (SelfTest.testMode && HeuristicEval.totalPositionsEvaluated % 10000 == 0)
-        System.out.println("Positions evaluated: " + HeuristicEval.totalPositionsEvaluated);
+        if (SelfTest.testMode) {
+            final long evaluated = HeuristicEval.totalPositionsEvaluated.incrementAndGet();
+            if (evaluated % 10000 == 0) System.out.println("Positions evaluated: " + evaluated);
+        }
 
 
         long centipawns = 0;
 
-        // check for game over
-        GameState state = position.getGameState();
-
-        if (state == GameState.WhiteWon) {
-            return new Evaluation(Colour.White);
-        } else if (state == GameState.BlackWon) {
-            return new Evaluation(Colour.Black);
-        } else if (state == GameState.Draw) {
-            return new Evaluation(Colour.None);
-        }
-
 
-        long whiteOccupancy = Bitboards.whiteSquares(position.getBitboards());
-        long blackOccupancy = Bitboards.blackSquares(position.getBitboards());
-        
         // add up raw piece values based on constants
         long totalMaterialValue = 0;
         int numPiecesOnBoard = 0;
-        for (int i = 0; i < 8; i ++) {
-            for (int j = 0; j < 8; j++) {
-                Piece p = position.pieceAt(i, j);
-                int value = 0;
-                switch(p.getType()) {
-                    case pawn:
-                        value = Constants.VALUE_PAWN;
-                        numPiecesOnBoard++;
-                        break;
-                    case knight:
-                        value = Constants.VALUE_KNIGHT;
-                        numPiecesOnBoard++;
-                        break;
-                    case bishop:
-                        value = Constants.VALUE_BISHOP;
-                        numPiecesOnBoard++;
-                        break;
-                    case rook:
-                        value = Constants.VALUE_ROOK;
-                        numPiecesOnBoard++;
-                        break;
-                    case queen:
-                        value = Constants.VALUE_QUEEN;
-                        numPiecesOnBoard++;
-                        break;
-                    case king: case empty: default:
-                        break;
-                }
-                    
-                totalMaterialValue += value; // track total amt of material on the board
-                if (p.getColour() == Colour.White) {
-                    centipawns += value;
-                } else if (p.getColour() == Colour.Black) {
-                    centipawns -= value;
-                }
-            }
+        for (long b = position.getOccupancy(); b != 0; b = Bitboards.popLsb(b)) {
+            final int code = position.pieceCodeAt(Bitboards.lsb(b));
+            if (code % 6 == PieceType.king.ordinal()) continue;
+
+            final int value = pieceValues[code % 6];
+            numPiecesOnBoard++;
+            totalMaterialValue += value; // track total amt of material on the board
+            centipawns += (code < 6) ? value : -value;
         }
         
 
@@ -90,42 +63,14 @@ public class HeuristicEval {
 
         // add piece-square table values
         // (functions very similarly to above loop)
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                Piece p = position.pieceAt(i, j);
-                int value = 0;
-                switch(p.getType()) {
-                    case pawn:
-                        value = HeuristicEval.getPstValue(p.getCoord().getX(), p.getCoord().getY(), Constants.PST_PAWN, p.getColour()==Colour.Black);
-                        break;
-                    case knight:
-                        value = HeuristicEval.getPstValue(p.getCoord().getX(), p.getCoord().getY(), Constants.PST_KNIGHT, p.getColour()==Colour.Black);
-                        break;
-                    case bishop:
-                        value = HeuristicEval.getPstValue(p.getCoord().getX(), p.getCoord().getY(), Constants.PST_BISHOP, p.getColour()==Colour.Black);
-                        break;
-                    case rook:
-                        value = HeuristicEval.getPstValue(p.getCoord().getX(), p.getCoord().getY(), Constants.PST_ROOK, p.getColour()==Colour.Black);
-                        break;
-                    case queen:
-                        value = HeuristicEval.getPstValue(p.getCoord().getX(), p.getCoord().getY(), Constants.PST_QUEEN, p.getColour()==Colour.Black);
-                        break;
-                    case king: 
-                        if (gamePhase == 0 || gamePhase == 1) {
-                            value = HeuristicEval.getPstValue(p.getCoord().getX(), p.getCoord().getY(), Constants.PST_KING_EARLY, p.getColour()==Colour.Black);
-                        } else if (gamePhase == 2) {
-                            value = HeuristicEval.getPstValue(p.getCoord().getX(), p.getCoord().getY(), Constants.PST_KING_LATE, p.getColour()==Colour.Black);
-                        }
-                        break;
-                    case empty: default:
-                        break;
-                }
-                if (p.getColour() == Colour.White) {
-                    centipawns += value;
-                } else if (p.getColour() == Colour.Black) {
-                    centipawns -= value;
-                }
-            }
+        final int[][] kingTable = (gamePhase == 2) ? Constants.PST_KING_LATE : Constants.PST_KING_EARLY;
+        for (long b = position.getOccupancy(); b != 0; b = Bitboards.popLsb(b)) {
+            final int i = Bitboards.lsb(b);
+            final int code = position.pieceCodeAt(i);
+
+            final int[][] table = (code % 6 == PieceType.king.ordinal()) ? kingTable : pieceSquareTables[code % 6];
+            final int value = HeuristicEval.getPstValue(i % 8, i / 8, table, code >= 6);
+            centipawns += (code < 6) ? value : -value;
         }
 
 
@@ -135,18 +80,9 @@ public class HeuristicEval {
             int pawnsWhiteHere = 0;
             int pawnsBlackHere = 0;
             for (int i = 0; i < 8; i++) {
-                if (position.pieceAt(i, j).getType() == PieceType.pawn) {
-                    switch (position.pieceAt(i, j).getColour()) {
-                        case White:
-                            pawnsWhiteHere++;
-                            break;
-                        case Black:
-                            pawnsBlackHere++;
-                            break;
-                        case None: default:
-                            break;
-                    }
-                }
+                final int code = position.pieceCodeAt(Bitboards.toIndex(i, j));
+                if (code == PieceType.pawn.ordinal()) pawnsWhiteHere++;
+                else if (code == 6 + PieceType.pawn.ordinal()) pawnsBlackHere++;
             }
             doubledPawns[j] = pawnsWhiteHere;
             doubledPawns[j+8] = pawnsBlackHere;
@@ -160,39 +96,34 @@ public class HeuristicEval {
 
 
         // detect passed pawns and give bonuses
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                Piece p = position.pieceAt(i, j);
-                if (p.getType() != PieceType.pawn) continue;
-                int index = Bitboards.toIndex(p.getCoord());
-
-                // generate mask covering all squares that need to be pawnless for this to be a passer
-                long passedPawnMask;
-                if (p.getColour() == Colour.White) passedPawnMask = Bitboards.passedPawnMaskWhite(index);
-                else passedPawnMask = Bitboards.passedPawnMaskBlack(index);
-
-                long enemyPawns = position.getBitboards()[p.getColour()==Colour.White?0:6];
-
-                if ((passedPawnMask & enemyPawns) == 0) {
-                    // this must be a passed pawn, give bonus
-                    if (p.getColour() == Colour.White) {
-                        centipawns += Constants.EVAL_PASSED_PAWN_BONUSES[7 - (index/8)];
-                    } else {
-                        centipawns -= Constants.EVAL_PASSED_PAWN_BONUSES[index/8];
-                    }
+        final long[] bitboards = position.getBitboards();
+        for (long b = bitboards[0] | bitboards[6]; b != 0; b = Bitboards.popLsb(b)) {
+            final int index = Bitboards.lsb(b);
+            final boolean white = position.pieceCodeAt(index) < 6;
+
+            // generate mask covering all squares that need to be pawnless for this to be a passer
+            long passedPawnMask;
+            if (white) passedPawnMask = Bitboards.passedPawnMaskWhite(index);
+            else passedPawnMask = Bitboards.passedPawnMaskBlack(index);
+
+            long enemyPawns = bitboards[white?0:6];
+
+            if ((passedPawnMask & enemyPawns) == 0) {
+                // this must be a passed pawn, give bonus
+                if (white) {
+                    centipawns += Constants.EVAL_PASSED_PAWN_BONUSES[7 - (index/8)];
+                } else {
+                    centipawns -= Constants.EVAL_PASSED_PAWN_BONUSES[index/8];
                 }
             }
         }
 
 
         // apply bonuses for number of unique squares 'controlled'
-        int squaresControlledDiff = 0;
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                if (position.isSquareAttacked(new Coord(i, j), Colour.White)) squaresControlledDiff++;
-                else if (position.isSquareAttacked(new Coord(i, j), Colour.Black)) squaresControlledDiff--;
-            }
-        }
+        // (squares controlled by both sides count towards white)
+        final long whiteControlled = position.getAttackedSquares(Colour.White);
+        final long blackControlled = position.getAttackedSquares(Colour.Black);
+        int squaresControlledDiff = Long.bitCount(whiteControlled) - Long.bitCount(blackControlled & ~whiteControlled);
 
         centipawns += squaresControlledDiff * Constants.EVAL_CONTROLLED_SQUARE_BONUS;
         
@@ -215,6 +146,6 @@ public class HeuristicEval {
             centipawns *= 1 - Math.min(0.5, 0.03*(Constants.EVAL_HIGH_HALFMOVE_COUNT-position.getHalfMoveNumber()));
         }
 
-        return new Evaluation(centipawns);
+        return (int)centipawns;
     }
 }
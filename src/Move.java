@@ -14,85 +14,39 @@ public class Move {
 
     // update underlying board with new position after this move
     public void make() {
-        this.board.load(this.simulate());
+        this.board.makeMove(this);
     }
 
+    // returns a copy of the board with this move played, leaving the original untouched.
+    // prefer Board.makeMove()/unmakeMove() where possible, this allocates a whole new board
     public Board simulate() {
-        // make a copy of the board
-        Board newBoard = new Board();
-        newBoard.load(this.board);
-
-        // reset halfmove clock for 50 move rule if applicable
-        // pawn move
-        if (this.piece.getType() == PieceType.pawn) newBoard.resetHalfMoveCount();
-        // capture
-        if (newBoard.pieceAt(this.coord).getType() != PieceType.empty) newBoard.resetHalfMoveCount();
-
-        // overwrite the piece being taken, creating a copy
-        newBoard.setPieceAt(this.coord, this.piece);
-        // remove the now old duplicate on our piece's original square
-        newBoard.removePieceAt(this.piece.getCoord());
-
-
-        // update castling possibilities
-
-        // 2-size array representing castling oppurtunities for the colour of the piece of this move
-        // 0=short, 1=long e.g. [true, false] means short is possible but not long
-        final boolean[] myColourCastle = newBoard.getCastlingPossibilities()[this.piece.getColour() == Colour.White ? 1 : 0];
-        // if any type of castling is possible for this side...
-        if (myColourCastle[0] || myColourCastle[1]) {
-            // any king move makes any type of castling impossible
-            if (this.piece.getType() == PieceType.king) {
-                // make both castling types impossible
-                newBoard.removeCastling(this.piece.getColour(), 0);
-                newBoard.removeCastling(this.piece.getColour(), 1);
-            } else if (this.piece.getType() == PieceType.rook) {
-                // make castling in the direction of this rook impossible
-
-                // detect whether this rook would be used to castle short or long by x coords
-                int castleType = 0;  // 0=long, 1=short
-                if (this.piece.getCoord().getX() > newBoard.getKing(this.piece.getColour()).getCoord().getX()) {
-                    // rook has higher x coord than king
-                    if (this.piece.getColour() == Colour.White) castleType = 0;  // white, long
-                    else castleType = 1;  // black, short
-                } else {
-                    // rook has lower (or same but illegal) x coord than king
-                    if (this.piece.getColour() == Colour.White) castleType = 1;  // white, short
-                    else castleType = 0;  // black, long
-                }
-
-                // now actually remove castling possibility for this type of castling
-                newBoard.removeCastling(this.piece.getColour(), castleType);
-            }
-        }
+        Board newBoard = new Board(this.board);
+        newBoard.makeMove(this);
+        return newBoard;
+    }
 
-        // update en passant target
-        if (this.piece.getType() != PieceType.pawn) {
-            // if no en passant square would be created, make it out of bounds to represent no en passant square
-            newBoard.setEnPassantSquare(new Coord(-1, -1));
-        } else {
-            // set appropriate en passant square if this piece is a pawn moving 2 squares
-            if (Math.abs(this.piece.getCoord().getY() - this.coord.getY()) == 2) {
-                newBoard.setEnPassantSquare(new Coord(this.coord.getX(), this.coord.getY() - (this.piece.getColour() == Colour.White ? 1 : -1)));
-            } else {
-                // as above, if no en passant square would be created, make it out of bounds to represent no en passant square
-                newBoard.setEnPassantSquare(new Coord(-1, -1));
-            }
+    // packed form of this move, see PackedMove
+    public int toPacked() {
+        final int from = Bitboards.toIndex(this.piece.getCoord());
+        final int to = Bitboards.toIndex(this.coord);
+
+        switch (this.type) {
+            case castling:
+                return PackedMove.create(from, to, PackedMove.CASTLING);
+            case promotion:
+                return PackedMove.createPromotion(from, to, this.getPromoType().ordinal());
+            case enPassant:
+                return PackedMove.create(from, to, PackedMove.EN_PASSANT);
+            default:
+                return PackedMove.create(from, to);
         }
-
-        newBoard.incMoveCount();
-        newBoard.addMoveHistory(this);
-        return newBoard;
     }
 
     public boolean isLegal() {
-        // search for this move in relevant pieces legal moves
-        for (Move m : this.piece.getLegalMoves()) {
-            if (this.equals(m)) {
-                return true;  // found, return true
-            }
-        }
-        return false;  // not found, return false
+        // search for this move in the board's legal moves
+        MoveList legalMoves = new MoveList();
+        this.board.generateLegalMoves(legalMoves);
+        return legalMoves.contains(this.toPacked());
     }
 
     public Coord getCoord() {
@@ -1,51 +1,76 @@
 public class MoveFactory {
+    private final static String promotionChars = "nbrq";  // indexed by PieceType ordinal - 1
+
     // parse move from algebraic notation
     static final public Move fromLongAlgebraicStr(String longAlgebraicMove, Board board) {
+        return MoveFactory.fromPacked(MoveFactory.packedFromLongAlgebraicStr(longAlgebraicMove, board), board);
+    }
+
+    // parse move from algebraic notation into a packed move (see PackedMove)
+    static final public int packedFromLongAlgebraicStr(String longAlgebraicMove, Board board) {
         // parse both coordinates from string
         if (longAlgebraicMove.length() != 4 && longAlgebraicMove.length() != 5) throw new ExceptionInInitializerError("invalid move format (wrong length)");
         Coord coord1 = new Coord(longAlgebraicMove.substring(0,2));  // source coord
         Coord coord2 = new Coord(longAlgebraicMove.substring(2,4));  // dest coord
         if (!coord1.isInBounds() || !coord2.isInBounds()) throw new ExceptionInInitializerError("invalid move format (bad coordinate)");
-        
-        Piece piece = board.pieceAt(coord1);
+
+        final int from = Bitboards.toIndex(coord1);
+        final int to = Bitboards.toIndex(coord2);
+        final int code = board.pieceCodeAt(from);
+        final PieceType type = (code == Board.EMPTY) ? PieceType.empty : PieceType.values()[code % 6];
 
         // check if this move is castling
-        if (piece.getType() == PieceType.king) {
+        if (type == PieceType.king) {
             // if king moves more than 1 square across this is either castling or illegal (assume legal)
-            // (there are edge cases in variants where a king and rook begin on squares directly next
-            // to one another, and the king can castle by moving only 1 square - this is ignored)
             if (Math.abs(coord1.getX() - coord2.getX()) > 1) {
-                // TODO: check that there is a clear path to castle
-                return new CastlingMove(piece, coord2.getX() > coord1.getX());
+                return PackedMove.create(from, to, PackedMove.CASTLING);
             }
         }
 
-        if (piece.getType() == PieceType.pawn) {
+        if (type == PieceType.pawn) {
             // only promotions are of length 5 (last char is piece e.g. q r b n)
             if (longAlgebraicMove.length() == 5) {
-                char pieceTypeChar = longAlgebraicMove.charAt(4);
+                int promoIndex = promotionChars.indexOf(longAlgebraicMove.charAt(4));
                 // parse the piece type signified by final char
-                if ("qrbn".indexOf(pieceTypeChar) != -1) {
-                    // create and return this new move
-                    final PieceType[] pieceTypeArr = {PieceType.queen, PieceType.rook, PieceType.bishop, PieceType.knight};
-                    return new PromotionMove(piece, coord2, pieceTypeArr["qrbn".indexOf(pieceTypeChar)]);
+                if (promoIndex != -1) {
+                    return PackedMove.createPromotion(from, to, promoIndex + 1);
                 } else {
                     // last character was not one of the valid possibilities - error
                     throw new ExceptionInInitializerError("promotion piece type not recognised");
                 }
             }
 
-            // if this is a capturing move...
-            if (coord2.getX() != coord1.getX()) {
-                // check for en passant
-                if (board.isSquareEnPassantable(coord2)) {
-                    // return appropriate en passant type move
-                    return new EnPassantMove(piece, coord2);
-                }
+            // if this is a capturing move, check for en passant
+            if (coord2.getX() != coord1.getX() && board.isSquareEnPassantable(coord2)) {
+                return PackedMove.create(from, to, PackedMove.EN_PASSANT);
             }
         }
 
         // if this code was reached, the move is not of any special type - return normal move
-        return new Move(piece, coord2);
+        return PackedMove.create(from, to);
+    }
+
+    // long algebraic form of a packed move: 1st coord + 2nd coord + piece type initial if promoting
+    static final public String toLongAlgebraicStr(int move) {
+        String str = Bitboards.toCoord(PackedMove.from(move)).toString() + Bitboards.toCoord(PackedMove.to(move)).toString();
+        if (PackedMove.type(move) == PackedMove.PROMOTION) str += promotionChars.charAt(PackedMove.promoType(move) - 1);
+        return str;
+    }
+
+    // create a Move object for a packed move in the given position
+    static final public Move fromPacked(int move, Board board) {
+        Piece piece = board.pieceAt(Bitboards.toCoord(PackedMove.from(move)));
+        Coord to = Bitboards.toCoord(PackedMove.to(move));
+
+        switch (PackedMove.type(move)) {
+            case PackedMove.CASTLING:
+                return new CastlingMove(piece, to.getX() > piece.getCoord().getX());
+            case PackedMove.PROMOTION:
+                return new PromotionMove(piece, to, PieceType.values()[PackedMove.promoType(move)]);
+            case PackedMove.EN_PASSANT:
+                return new EnPassantMove(piece, to);
+            default:
+                return new Move(piece, to);
+        }
     }
 }
@@ -1,22 +1,274 @@
-import java.util.ArrayList;
-
+// generates packed moves (see PackedMove) into MoveLists
 public class MoveGeneration {
-    public static final ArrayList<Move> generateLegal(Board pos) {
-        ArrayList<Move> moves = new ArrayList<Move>();
+    // list of types of pieces that pawns are allowed to promote into
+    private static final int[] promotionTypes = {
+        PieceType.queen.ordinal(), PieceType.knight.ordinal(), PieceType.rook.ordinal(), PieceType.bishop.ordinal()
+    };
+
+    // which moves to generate, see generateLegal(). noisy moves are captures (including en passant) and
+    // promotions, quiet moves are everything else
+    public static final int ALL = 0;
+    public static final int NOISY = 1;
+    public static final int QUIET = 2;
+
+    // squares pawns promote on, for either side
+    private static final long promotionSquares = Bitboards.rankMask | (Bitboards.rankMask << 56);
+
+    // fills moves with all fully legal moves for the side to move in pos
+    public static final void generateLegal(Board pos, MoveList moves) {
+        generateLegal(pos, moves, ALL);
+    }
+
+    // fills moves with the fully legal moves of the given kind (ALL, NOISY or QUIET) for the side to move in pos.
+    // pieces giving check and pieces pinned to our king are worked out once up front, so moves
+    // can be restricted to legal squares straight away rather than being tried out one by one.
+    // https://www.chessprogramming.org/Checks_and_Pinned_Pieces_(Bitboards)
+    public static final void generateLegal(Board pos, MoveList moves, int kind) {
+        moves.clear();
+
+        final long[] bitboards = pos.getBitboards();
+        final boolean white = pos.getSideToMove() == Colour.White;
+        final int offset = white ? 0 : 6;
+        final int enemyOffset = white ? 6 : 0;
+
+        // occupancy bitboards
+        final long friendlyOccupancy = pos.getOccupancy(white ? Colour.White : Colour.Black);
+        final long enemyOccupancy = pos.getOccupancy(white ? Colour.Black : Colour.White);
+        final long occupancy = friendlyOccupancy | enemyOccupancy;
+
+        // squares pieces other than pawns may move to for the kind of moves wanted
+        long targets = ~friendlyOccupancy;
+        if (kind == NOISY) targets = enemyOccupancy;
+        if (kind == QUIET) targets = ~occupancy;
+
+        // enemy sliders grouped by the directions they move in
+        final long enemyStraight = bitboards[enemyOffset + PieceType.rook.ordinal()] | bitboards[enemyOffset + PieceType.queen.ordinal()];
+        final long enemyDiagonal = bitboards[enemyOffset + PieceType.bishop.ordinal()] | bitboards[enemyOffset + PieceType.queen.ordinal()];
+
+        // the king can be missing in some test positions, then nothing can be check or pinned
+        final int kingSquare = pos.getKingSquare(pos.getSideToMove());
+        final boolean hasKing = kingSquare != -1;
+
+        long checkers = 0;
+        long pinned = 0;
+        if (hasKing) {
+            checkers = pos.attackersTo(kingSquare, occupancy) & enemyOccupancy;
+
+            // enemy sliders that would see our king if none of our pieces were in the way. if exactly one
+            // of our pieces is in the way, its pinned and can only move along the line between them
+            final long pinners = (Bitboards.rookAttacks(kingSquare, enemyOccupancy) & enemyStraight) |
+                                 (Bitboards.bishopAttacks(kingSquare, enemyOccupancy) & enemyDiagonal);
+            for (long b = pinners; b != 0; b = Bitboards.popLsb(b)) {
+                final int sq = Bitboards.lsb(b);
+                final long blockers = Bitboards.between(kingSquare, sq) & occupancy;
+                if (Long.bitCount(blockers) == 1 && (blockers & friendlyOccupancy) != 0) pinned |= blockers;
+            }
+
+            // king moves, the king is taken off the board first so it can't block a slider's attack on
+            // a square it's moving away along the same line to
+            final long occupancyWithoutKing = occupancy & ~Bitboards.squareMask(kingSquare);
+            final long kingTargets = Bitboards.kingAttacks(kingSquare) & targets;
+            for (long b = kingTargets; b != 0; b = Bitboards.popLsb(b)) {
+                final int to = Bitboards.lsb(b);
+                if ((pos.attackersTo(to, occupancyWithoutKing) & enemyOccupancy) == 0) {
+                    moves.add(PackedMove.create(kingSquare, to));
+                }
+            }
+
+            // king can also castle, either short and long. the castling rights mean the king and rook are
+            // on their starting squares, there also can't be any pieces in the way and the king can't
+            // castle out of, through or into check
+            final int rights = (kind == NOISY) ? 0 : pos.getCastlingRights();
+            if (checkers == 0 && (rights & (white ? Board.CASTLE_WHITE_SHORT : Board.CASTLE_BLACK_SHORT)) != 0 &&
+                !Bitboards.match(occupancy, kingSquare + 1) && !Bitboards.match(occupancy, kingSquare + 2) &&
+                !isAttacked(pos, kingSquare + 1, occupancy, enemyOccupancy) && !isAttacked(pos, kingSquare + 2, occupancy, enemyOccupancy)) {
+                moves.add(PackedMove.create(kingSquare, kingSquare + 2, PackedMove.CASTLING));
+            }
+            if (checkers == 0 && (rights & (white ? Board.CASTLE_WHITE_LONG : Board.CASTLE_BLACK_LONG)) != 0 &&
+                !Bitboards.match(occupancy, kingSquare - 1) && !Bitboards.match(occupancy, kingSquare - 2) &&
+                !Bitboards.match(occupancy, kingSquare - 3) &&
+                !isAttacked(pos, kingSquare - 1, occupancy, enemyOccupancy) && !isAttacked(pos, kingSquare - 2, occupancy, enemyOccupancy)) {
+                moves.add(PackedMove.create(kingSquare, kingSquare - 2, PackedMove.CASTLING));
+            }
+        }
+
+        // in double check the king has to move, nothing else can deal with both checks
+        final int numCheckers = Long.bitCount(checkers);
+        if (numCheckers > 1) return;
+
+        // in single check, every other move has to capture the checking piece or block it
+        long checkMask = ~0L;
+        if (numCheckers == 1) checkMask = checkers | Bitboards.between(kingSquare, Bitboards.lsb(checkers));
+
+        // pawns are done all at once, see below
+        final long ourPawns = bitboards[offset + PieceType.pawn.ordinal()];
+        final long otherPieces = friendlyOccupancy & ~bitboards[offset + PieceType.king.ordinal()] & ~ourPawns;
+        for (long pieces = otherPieces; pieces != 0; pieces = Bitboards.popLsb(pieces)) {
+            final int from = Bitboards.lsb(pieces);
+
+            // squares this piece is allowed to land on
+            long allowed = checkMask & targets;
+            if (Bitboards.match(pinned, from)) allowed &= Bitboards.line(kingSquare, from);
+
+            long moveBitboard = 0;
+
+            switch (PieceType.values()[pos.pieceCodeAt(from) - offset]) {
+                case queen:
+                    // queen combines the abilities of rooks and bishops
+                    moveBitboard = Bitboards.queenAttacks(from, occupancy) & allowed;
+                    break;
+
+                case rook:
+                    // rook can move any amount of squares horizontally or vertically
+                    moveBitboard = Bitboards.rookAttacks(from, occupancy) & allowed;
+                    break;
 
-        return moves;
+                case bishop:
+                    // bishop can move any amount of squares diagonally
+                    moveBitboard = Bitboards.bishopAttacks(from, occupancy) & allowed;
+                    break;
+
+                case knight:
+                    // moves 2 squares horizontally and 1 square perpendicular to the inital direction in one move
+                    // (handled by bitboard masks)
+                    moveBitboard = Bitboards.knightAttacks(from) & allowed;
+                    break;
+
+                default:
+                    break;
+            }
+
+            // add moves from generated move bitboards
+            addMoves(moves, from, moveBitboard);
+        }
+
+        // pawn moves are generated for every pawn at once by shifting the whole bitboard, then each target
+        // square is matched up with the pawn that moved there (which is always the same distance behind it).
+        // pushes onto the back rank are promotions, so count as noisy
+        long pushes = Bitboards.pawnPushes(ourPawns, ~occupancy, white) & checkMask;
+        if (kind == NOISY) pushes &= promotionSquares;
+        if (kind == QUIET) pushes &= ~promotionSquares;
+        addPawnMoves(moves, pushes, white ? 8 : -8, pinned, kingSquare);
+        if (kind != NOISY) {
+            final long doublePushes = Bitboards.pawnDoublePushes(ourPawns, ~occupancy, white) & checkMask;
+            addPawnMoves(moves, doublePushes, white ? 16 : -16, pinned, kingSquare);
+        }
+        if (kind != QUIET) {
+            final long capturesL = Bitboards.pawnAttacksL(ourPawns, white) & enemyOccupancy & checkMask;
+            final long capturesR = Bitboards.pawnAttacksR(ourPawns, white) & enemyOccupancy & checkMask;
+            addPawnMoves(moves, capturesL, white ? 7 : -9, pinned, kingSquare);
+            addPawnMoves(moves, capturesR, white ? 9 : -7, pinned, kingSquare);
+        }
+
+        // en passant is checked separately as it removes a pawn from a square the capturing pawn doesnt move to.
+        // this can uncover an attack on our king along the rank that neither pin detection or the check mask see
+        final int epSquare = (kind == QUIET) ? -1 : pos.getEnPassantSquare();
+        if (epSquare != -1) {
+            final int captureSquare = epSquare + (white ? -8 : 8);
+            final long attackingPawns = Bitboards.pawnAttacks(white ? Colour.Black : Colour.White, epSquare) & ourPawns;
+
+            for (long b = attackingPawns; b != 0; b = Bitboards.popLsb(b)) {
+                final int from = Bitboards.lsb(b);
+
+                // must either capture the checking pawn or block the check
+                if ((checkMask & (Bitboards.squareMask(epSquare) | Bitboards.squareMask(captureSquare))) == 0) continue;
+
+                // make sure no slider can see our king once both pawns are gone (covers pins as well)
+                if (hasKing) {
+                    final long occupancyAfter = (occupancy & ~Bitboards.squareMask(from) & ~Bitboards.squareMask(captureSquare)) | Bitboards.squareMask(epSquare);
+                    if ((Bitboards.rookAttacks(kingSquare, occupancyAfter) & enemyStraight) != 0) continue;
+                    if ((Bitboards.bishopAttacks(kingSquare, occupancyAfter) & enemyDiagonal) != 0) continue;
+                }
+
+                moves.add(PackedMove.create(from, epSquare, PackedMove.EN_PASSANT));
+            }
+        }
+    }
+
+    // checks whether a move, e.g. from the transposition table or a killer move from a different position,
+    // is legal in pos without generating every move. this is much cheaper for normal moves and promotions.
+    // the rarer castling and en passant moves are just looked for in the full list of legal moves
+    public static final boolean isLegal(Board pos, int move) {
+        if (move == PackedMove.NONE) return false;
+
+        final int from = PackedMove.from(move);
+        final int to = PackedMove.to(move);
+        final int type = PackedMove.type(move);
+        final boolean white = pos.getSideToMove() == Colour.White;
+
+        if (type == PackedMove.CASTLING || type == PackedMove.EN_PASSANT) {
+            MoveList moves = new MoveList();
+            generateLegal(pos, moves);
+            return moves.contains(move);
+        }
+
+        // must be moving one of our own pieces, and not onto another one or the enemy king
+        final int code = pos.pieceCodeAt(from);
+        final int target = pos.pieceCodeAt(to);
+        if (code == Board.EMPTY || (code < 6) != white) return false;
+        if (target != Board.EMPTY && ((target < 6) == white || target % 6 == PieceType.king.ordinal())) return false;
+
+        // the piece has to be able to move there
+        final long occupancy = pos.getOccupancy();
+        boolean reachable;
+        switch (PieceType.values()[code % 6]) {
+            case pawn:
+                final int forwards = white ? 8 : -8;
+                final boolean startRank = white ? (from / 8 == 1) : (from / 8 == 6);
+                if (target != Board.EMPTY) reachable = Bitboards.match(Bitboards.pawnAttacks(white ? Colour.White : Colour.Black, from), to);
+                else reachable = to == from + forwards || (startRank && to == from + 2*forwards && pos.pieceCodeAt(from + forwards) == Board.EMPTY);
+                // pawns have to promote when reaching the back rank, and can't otherwise
+                if (Bitboards.match(promotionSquares, to) != (type == PackedMove.PROMOTION)) return false;
+                break;
+            case knight: reachable = Bitboards.match(Bitboards.knightAttacks(from), to); break;
+            case bishop: reachable = Bitboards.match(Bitboards.bishopAttacks(from, occupancy), to); break;
+            case rook:   reachable = Bitboards.match(Bitboards.rookAttacks(from, occupancy), to); break;
+            case queen:  reachable = Bitboards.match(Bitboards.queenAttacks(from, occupancy), to); break;
+            default:     reachable = Bitboards.match(Bitboards.kingAttacks(from), to); break;
+        }
+        if (!reachable || (type == PackedMove.PROMOTION && code % 6 != PieceType.pawn.ordinal())) return false;
+
+        // finally make sure our king isn't left in check
+        final Colour us = pos.getSideToMove();
+        pos.makeMove(move);
+        final boolean legal = !pos.isSquareAttacked(pos.getKingSquare(us), white ? Colour.Black : Colour.White);
+        pos.unmakeMove();
+        return legal;
     }
 
-    public static final ArrayList<Move> generatePseudoLegal(Board pos) {
-        ArrayList<Move> moves = new ArrayList<Move>();
+    private static final boolean isAttacked(Board pos, int index, long occupancy, long enemyOccupancy) {
+        return (pos.attackersTo(index, occupancy) & enemyOccupancy) != 0;
+    }
+
+    // adds a pawn move to each of the target squares, from the square 'distance' behind it. pinned pawns
+    // are only allowed to move along the line between them and the king
+    private static final void addPawnMoves(MoveList moves, long targets, int distance, long pinned, int kingSquare) {
+        for (; targets != 0; targets = Bitboards.popLsb(targets)) {
+            final int to = Bitboards.lsb(targets);
+            final int from = to - distance;
+            if (Bitboards.match(pinned, from) && !Bitboards.match(Bitboards.line(kingSquare, from), to)) continue;
+
+            // pawns can only reach the back ranks by promoting
+            addPawnMove(moves, from, to, to < 8 || to >= 56);
+        }
+    }
+
+    // adds a normal move from the given square to each square in the targets bitboard
+    private static final void addMoves(MoveList moves, int from, long targets) {
+        for (; targets != 0; targets = Bitboards.popLsb(targets)) {
+            moves.add(PackedMove.create(from, Bitboards.lsb(targets)));
+        }
+    }
 
-        long pawnAttackBitboard;
-        long knightAttackBitboard;
-        long bishopAttackBitboard;
-        long rookAttackBitboard;
-        long queenAttackBitboard;
-        long kingAttackBitboard;
+    // adds a pawn move, expanding it into each possible promotion if needed
+    private static final void addPawnMove(MoveList moves, int from, int to, boolean promoting) {
+        if (!promoting) {
+            moves.add(PackedMove.create(from, to));
+            return;
+        }
 
-        return moves;
+        for (int t : promotionTypes) {
+            moves.add(PackedMove.createPromotion(from, to, t));
+        }
     }
 }
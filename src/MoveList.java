@@ -0,0 +1,68 @@
+// fixed size list of packed moves (see PackedMove) with a score per move for ordering.
+// lists are meant to be allocated once and reused by calling clear(), never resized
+public class MoveList {
+    private final int[] moves;
+    private final int[] scores;
+    private int size;
+
+    public MoveList() {
+        // no legal chess position has more than 218 moves
+        this.moves = new int[Constants.MAX_MOVES_PER_POSITION];
+        this.scores = new int[Constants.MAX_MOVES_PER_POSITION];
+        this.size = 0;
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    public void add(int move) {
+        this.moves[this.size] = move;
+        this.scores[this.size] = 0;
+        this.size++;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int get(int index) {
+        return this.moves[index];
+    }
+
+    public void set(int index, int move) {
+        this.moves[index] = move;
+    }
+
+    public int getScore(int index) {
+        return this.scores[index];
+    }
+
+    public void setScore(int index, int score) {
+        this.scores[index] = score;
+    }
+
+    public boolean contains(int move) {
+        for (int i = 0; i < this.size; i++) {
+            if (this.moves[i] == move) return true;
+        }
+        return false;
+    }
+
+    // moves the highest scored move from index onwards to index and returns it. calling this for each index in
+    // turn gives the moves best first, without sorting the whole list when only the first few get looked at
+    public int pickNext(int index) {
+        int best = index;
+        for (int i = index + 1; i < this.size; i++) {
+            if (this.scores[i] > this.scores[best]) best = i;
+        }
+
+        final int move = this.moves[best];
+        final int score = this.scores[best];
+        this.moves[best] = this.moves[index];
+        this.scores[best] = this.scores[index];
+        this.moves[index] = move;
+        this.scores[index] = score;
+        return move;
+    }
+}
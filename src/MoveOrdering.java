@@ -1,100 +1,90 @@
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
-
 public class MoveOrdering {
-    private final static class MoveWeightPair {
-        private final Move move;
-        private final int weight;
-
-        public MoveWeightPair(Move move, int weight) {
-            this.move = move;
-            this.weight = weight;
+    // piece values indexed by PieceType ordinal. kings are never captured, but can capture so still need a value
+    private final static int[] pieceValues = {
+        Constants.VALUE_PAWN, Constants.VALUE_KNIGHT, Constants.VALUE_BISHOP, Constants.VALUE_ROOK, Constants.VALUE_QUEEN, 1000
+    };
+
+    // capture scores by [victim][attacker] PieceType ordinal: most valuable victim first, then least valuable
+    // attacker. every capture scores above the best quiet moves
+    // https://www.chessprogramming.org/MVV-LVA
+    private final static int[][] mvvLva = new int[6][6];
+    static {
+        for (int victim = 0; victim < 6; victim++) {
+            for (int attacker = 0; attacker < 6; attacker++) {
+                mvvLva[victim][attacker] = Constants.ORDER_CAPTURE_BONUS + pieceValues[victim] - pieceValues[attacker] / 10;
+            }
         }
-
-        public Move getMove() { return this.move; }
-        public int getWeight() { return this.weight; }
     }
 
-    public static ArrayList<Move> reorder(ArrayList<Move> moves) {
-        int[] movesWeights = new int[moves.size()];
+    // whether a move scored by score() (with no history) is a capture that loses material according to
+    // Board.see(). those are the only moves scored below 0, so the exchange never has to be worked out twice
+    public static boolean isLosingCapture(int score) {
+        return score < 0;
+    }
 
+    // moves should all be legal in pos. scores each move without sorting, the search picks moves one at a time with
+    // MoveList.pickNext() instead, as after a cutoff the rest of the list never needs to be in order.
+    // hashMove (e.g. the best move found for this position last time) always scores highest.
+    // quiet moves are also ordered using what the search has learnt so far: killers are quiet moves that recently
+    // caused a cutoff at the same ply, and history (indexed by from*64+to) scores how often each quiet move has
+    // caused cutoffs for this side. either can be null, and history must be null for isLosingCapture() to work
+    public static void score(MoveList moves, Board pos, int hashMove, int[] killers, int[] history) {
         for (int i = 0; i < moves.size(); i++) {
             // calculate a priority weighting for each move
             int weight = 0;
 
-            Move m = moves.get(i);
-            Board board = m.getBoard();
+            final int m = moves.get(i);
+            if (m == hashMove) {
+                moves.setScore(i, Integer.MAX_VALUE);
+                continue;
+            }
 
-            Piece piece = m.getPiece();
-            Piece capPiece = board.pieceAt(m.getCoord());
+            final int from = PackedMove.from(m);
+            final int to = PackedMove.to(m);
+            final int type = PackedMove.type(m);
+
+            final int pieceType = pos.pieceCodeAt(from) % 6;
+            final int capCode = pos.pieceCodeAt(to);
+
+            // captures that lose material once the other side takes back are put after everything else, least bad
+            // first. capturing something worth at least as much as the capturing piece can't lose anything, so the
+            // exchange only needs working out otherwise
+            final boolean capture = capCode != Board.EMPTY && type != PackedMove.CASTLING;
+            if (capture && pieceValues[capCode % 6] < pieceValues[pieceType]) {
+                final int see = pos.see(m);
+                if (see < 0) {
+                    moves.setScore(i, see);
+                    continue;
+                }
+            }
 
             // give weight for checks
-            if (m.simulate().isCheck()) weight += 200;
+            if (pos.givesCheck(m)) weight += 200;
 
             // detect capturing move
-            if ((capPiece.getType() != PieceType.empty || m.getType() == MoveType.enPassant) && m.getType() != MoveType.castling) {
-                // always add some amount of weight to any capture
-                weight += 100; 
-
-                // add weight depending on piece value vs captured piece value
-                final Piece[] piecePair = {piece, capPiece};
-                int[] pieceValuePair    = {0,     0};
-                for (int j = 0; j < 2; j++) {
-                    switch(piecePair[j].getType()) {
-                        case pawn:
-                            pieceValuePair[j] = Constants.VALUE_PAWN;
-                            break;
-                        case knight:
-                            pieceValuePair[j] = Constants.VALUE_KNIGHT;
-                            break;
-                        case bishop:
-                            pieceValuePair[j] = Constants.VALUE_BISHOP;
-                            break;
-                        case rook:
-                            pieceValuePair[j] = Constants.VALUE_ROOK;
-                            break;
-                        case queen:
-                            pieceValuePair[j] = Constants.VALUE_QUEEN;
-                            break;
-                        case king: case empty: default:
-                            break;
-                    }
-                }
+            if (type == PackedMove.EN_PASSANT) {
+                weight += mvvLva[PieceType.pawn.ordinal()][PieceType.pawn.ordinal()];
+            } else if (capture) {
+                weight += mvvLva[capCode % 6][pieceType];
+            }
 
-                // give weight for capturing a piece of higher value with one of lower value
-                weight += pieceValuePair[1] - pieceValuePair[0];
+            // quiet moves that worked elsewhere will likely work here too. killers go just below captures,
+            // and history can only reorder quiet moves among themselves
+            final boolean quiet = type == PackedMove.CASTLING || (type == PackedMove.NORMAL && capCode == Board.EMPTY);
+            if (quiet) {
+                if (killers != null && m == killers[0]) weight += Constants.ORDER_KILLER_BONUS;
+                else if (killers != null && m == killers[1]) weight += Constants.ORDER_KILLER_BONUS - 5;
+                if (history != null) weight += history[from * 64 + to] * Constants.ORDER_HISTORY_MAX_BONUS / Constants.HISTORY_MAX;
             }
 
             // give weight for pawn pushes
-            if (piece.getType() == PieceType.pawn) {
+            if (pieceType == PieceType.pawn.ordinal()) {
                 weight += 20;
                 // extra weight for pushing 2 squares
-                if (Math.abs(piece.getCoord().getY() - m.getCoord().getY()) == 2) weight += 10;
-            }
-
-
-            movesWeights[i] = weight;
-        }
-
-        // combine moves and their weights into pairs in one array using custom class
-        MoveWeightPair[] pairArray = new MoveWeightPair[moves.size()];
-        for (int i = 0; i < moves.size(); i++) {
-            pairArray[i] = new MoveWeightPair(moves.get(i), movesWeights[i]);
-        }
-        
-        // sort pair array
-        Arrays.sort(pairArray, new Comparator<MoveWeightPair>() {
-            @Override public int compare(MoveWeightPair lhs, MoveWeightPair rhs) {
-                return rhs.getWeight() - lhs.getWeight();
+                if (Math.abs(from - to) == 16) weight += 10;
             }
-        });
 
-        // convert pair array back into ArrayList<Move>
-        for (int i = 0; i < moves.size(); i++) {
-            moves.set(i, pairArray[i].getMove());
+            moves.setScore(i, weight);
         }
-
-        return moves;
     }
 }
@@ -0,0 +1,127 @@
+// hands out the legal moves of a position one at a time, roughly best first. most nodes in the search that
+// get a cutoff get it from one of the first couple of moves, so moves are generated in stages and the later
+// stages are only generated if the search actually gets to them:
+// the hash move, captures and promotions (best first), killer moves, the other quiet moves (by history), and
+// finally captures that lose material
+// https://www.chessprogramming.org/Move_Generation#Staged_Move_Generation
+public class MovePicker {
+    private final static int STAGE_HASH_MOVE = 0;
+    private final static int STAGE_GENERATE_NOISY = 1;
+    private final static int STAGE_NOISY = 2;
+    private final static int STAGE_KILLERS = 3;
+    private final static int STAGE_GENERATE_QUIETS = 4;
+    private final static int STAGE_QUIETS = 5;
+    private final static int STAGE_BAD_NOISY = 6;
+    private final static int STAGE_DONE = 7;
+
+    // reused between positions, so nothing is allocated while searching
+    private final MoveList moves = new MoveList();
+    private final MoveList badNoisyMoves = new MoveList();
+
+    private Board pos;
+    private int hashMove;
+    private int[] killers;
+    private int[] history;
+
+    private int stage;
+    private int index;  // next move to hand out in the current stage's list (or killer)
+    private int killer0;  // killers already handed out, so they aren't handed out again with the quiet moves
+    private int killer1;
+
+    // starts handing out moves for pos, which must not be changed until next() returns PackedMove.NONE (apart
+    // from making and then unmaking moves). killers and history are as in MoveOrdering.score(), either can be null
+    public void init(Board pos, int hashMove, int[] killers, int[] history) {
+        this.pos = pos;
+        this.hashMove = hashMove;
+        this.killers = killers;
+        this.history = history;
+
+        this.stage = STAGE_HASH_MOVE;
+        this.index = 0;
+        this.killer0 = PackedMove.NONE;
+        this.killer1 = PackedMove.NONE;
+        this.badNoisyMoves.clear();
+    }
+
+    // returns the next legal move, or PackedMove.NONE once there are none left
+    public int next() {
+        while (true) {
+            switch (this.stage) {
+                case STAGE_HASH_MOVE:
+                    this.stage = STAGE_GENERATE_NOISY;
+                    // the hash move usually comes from this exact position, but could be from another
+                    // position with the same key so it still has to be checked
+                    if (MoveGeneration.isLegal(this.pos, this.hashMove)) return this.hashMove;
+                    this.hashMove = PackedMove.NONE;
+                    break;
+
+                case STAGE_GENERATE_NOISY:
+                    MoveGeneration.generateLegal(this.pos, this.moves, MoveGeneration.NOISY);
+                    MoveOrdering.score(this.moves, this.pos, PackedMove.NONE, null, null);
+                    this.index = 0;
+                    this.stage = STAGE_NOISY;
+                    break;
+
+                case STAGE_NOISY:
+                    if (this.index < this.moves.size()) {
+                        final int m = this.moves.pickNext(this.index);
+                        final int score = this.moves.getScore(this.index++);
+                        if (m == this.hashMove) break;
+                        // captures that lose material are kept until after the quiet moves
+                        if (MoveOrdering.isLosingCapture(score)) {
+                            this.badNoisyMoves.add(m);
+                            break;
+                        }
+                        return m;
+                    }
+                    this.index = 0;
+                    this.stage = STAGE_KILLERS;
+                    break;
+
+                case STAGE_KILLERS:
+                    if (this.killers != null && this.index < this.killers.length) {
+                        final int m = this.killers[this.index++];
+                        // killers come from other positions, so might not be legal (or might be captures) here
+                        if (m == this.hashMove || !MoveGeneration.isLegal(this.pos, m) || !isQuiet(this.pos, m)) break;
+                        if (this.killer0 == PackedMove.NONE) this.killer0 = m;
+                        else this.killer1 = m;
+                        return m;
+                    }
+                    this.stage = STAGE_GENERATE_QUIETS;
+                    break;
+
+                case STAGE_GENERATE_QUIETS:
+                    MoveGeneration.generateLegal(this.pos, this.moves, MoveGeneration.QUIET);
+                    MoveOrdering.score(this.moves, this.pos, PackedMove.NONE, null, this.history);
+                    this.index = 0;
+                    this.stage = STAGE_QUIETS;
+                    break;
+
+                case STAGE_QUIETS:
+                    if (this.index < this.moves.size()) {
+                        final int m = this.moves.pickNext(this.index++);
+                        if (m == this.hashMove || m == this.killer0 || m == this.killer1) break;
+                        return m;
+                    }
+                    this.index = 0;
+                    this.stage = STAGE_BAD_NOISY;
+                    break;
+
+                case STAGE_BAD_NOISY:
+                    // already in order, as they were put here from the sorted captures
+                    if (this.index < this.badNoisyMoves.size()) return this.badNoisyMoves.get(this.index++);
+                    this.stage = STAGE_DONE;
+                    break;
+
+                default:
+                    return PackedMove.NONE;
+            }
+        }
+    }
+
+    // quiet moves are those that aren't captures or promotions
+    public final static boolean isQuiet(Board pos, int move) {
+        final int type = PackedMove.type(move);
+        return type == PackedMove.CASTLING || (type == PackedMove.NORMAL && pos.pieceCodeAt(PackedMove.to(move)) == Board.EMPTY);
+    }
+}
@@ -0,0 +1,45 @@
+// helper methods for moves packed into a single int, used wherever moves are generated or searched
+// to avoid allocating Move objects. layout (only the lower 16 bits are used):
+//   bits 0-5   from square index (see Bitboards.toIndex)
+//   bits 6-11  to square index
+//   bits 12-13 move type (MoveType ordinal: normal, castling, promotion, enPassant)
+//   bits 14-15 promotion piece (0=knight, 1=bishop, 2=rook, 3=queen), only meaningful for promotions
+public class PackedMove {
+    // a1a1 can never be a real move, so 0 is used to represent 'no move'
+    public final static int NONE = 0;
+
+    public final static int NORMAL = 0;
+    public final static int CASTLING = 1;
+    public final static int PROMOTION = 2;
+    public final static int EN_PASSANT = 3;
+
+    public final static int create(int from, int to) {
+        return from | (to << 6);
+    }
+
+    public final static int create(int from, int to, int type) {
+        return from | (to << 6) | (type << 12);
+    }
+
+    // promoType is a PieceType ordinal, knight through queen
+    public final static int createPromotion(int from, int to, int promoType) {
+        return from | (to << 6) | (PROMOTION << 12) | ((promoType - 1) << 14);
+    }
+
+    public final static int from(int move) {
+        return move & 0x3f;
+    }
+
+    public final static int to(int move) {
+        return (move >>> 6) & 0x3f;
+    }
+
+    public final static int type(int move) {
+        return (move >>> 12) & 0x3;
+    }
+
+    // returns the PieceType ordinal of the piece being promoted to
+    public final static int promoType(int move) {
+        return ((move >>> 14) & 0x3) + 1;
+    }
+}
@@ -21,30 +21,6 @@ public class PromotionMove extends Move {
         this.promoPieceType = promoType;
     }
 
-    public Board simulate() {
-        // make a copy of the board
-        Board newBoard = new Board();
-        newBoard.load(this.board);
-        
-        // put appropriate piece on its new square
-        newBoard.setPieceAt(this.coord, new Piece(this.piece.getColour(), this.promoPieceType, this.coord, newBoard));
-        // remove the now old duplicate on our piece's original square
-        newBoard.removePieceAt(this.piece.getCoord());        
-
-        // (dont need to update castling possibilities on these types of moves, move on)
-
-        // update en passant target (make it out of bounds to represent no en passant square)
-        newBoard.setEnPassantSquare(new Coord(-1, -1));
-
-        // reset halfmove clock for 50 move rule (this is a pawn move)
-        newBoard.resetHalfMoveCount();
-
-        // return the new modified copy of the board
-        newBoard.incMoveCount();
-        newBoard.addMoveHistory(this);
-        return newBoard;
-    }
-
     public PieceType getPromoType() {
         return this.promoPieceType;
     }
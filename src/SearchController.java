@@ -0,0 +1,73 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+// runs the search started by each uci 'go', and makes sure exactly one bestmove gets sent for it however the search
+// ends: by itself (out of time, depth reached etc.), on 'stop', or because another 'go' or 'quit' came in first.
+//
+// state goes IDLE -> SEARCHING on go, SEARCHING -> STOPPING on stop, and back to IDLE once bestmove has been sent.
+// bestmove is only sent by whichever thread takes the state back to IDLE, so it can never be sent twice
+public class SearchController {
+    public final static int IDLE = 0;
+    public final static int SEARCHING = 1;
+    public final static int STOPPING = 2;
+
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private SearchThread searchThread;
+    private UCIBackgroundThread waiter;  // waits for the search to finish, see searchFinished()
+
+    // time taken from the last stop request to bestmove being sent (System.nanoTime() based), -1 if not known yet
+    private volatile long stopRequestTime;
+    private volatile long lastStopLatencyNs = -1;
+
+    // starts a search, which must not have been started yet. a search still running from before is stopped first
+    public synchronized void go(SearchThread searchThread) {
+        this.stop();
+
+        this.searchThread = searchThread;
+        this.state.set(SEARCHING);
+        this.waiter = new UCIBackgroundThread(searchThread, this);
+        this.waiter.start();
+    }
+
+    // stops the current search (if any) and only returns once its bestmove has been sent, so that nothing sent
+    // after this can overtake it
+    public synchronized void stop() {
+        if (this.waiter == null) return;
+
+        if (this.state.compareAndSet(SEARCHING, STOPPING)) {
+            this.stopRequestTime = System.nanoTime();
+            this.searchThread.sendStopSignal();
+        }
+
+        try {
+            this.waiter.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        this.waiter = null;
+    }
+
+    // turns the current ponder search into a normal one, see SearchThread.ponderHit()
+    public synchronized void ponderHit() {
+        if (this.state.get() == SEARCHING) this.searchThread.ponderHit();
+    }
+
+    // called (from the waiter thread) once the search has finished
+    void searchFinished(SearchThread searchThread) {
+        final int previous = this.state.getAndSet(IDLE);
+        if (previous == IDLE) return;  // already sent
+        if (previous == STOPPING) this.lastStopLatencyNs = System.nanoTime() - this.stopRequestTime;
+
+        // with no legal moves there is no best move, uci uses the null move 0000 for that
+        final Move bestMove = searchThread.getBestMove();
+        final Move ponderMove = searchThread.getPonderMove();
+        System.out.println("bestmove " + (bestMove != null ? bestMove : "0000") + (ponderMove != null ? " ponder " + ponderMove : ""));
+    }
+
+    public int getState() {
+        return this.state.get();
+    }
+
+    public long getLastStopLatencyNs() {
+        return this.lastStopLatencyNs;
+    }
+}
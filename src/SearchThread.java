@@ -1,8 +1,7 @@
-import java.util.ArrayList;
-
 public class SearchThread extends Thread {
-    // can be set to true to send a stop signal, as soon as thats detected we stop searching
-    boolean stopSignal;
+    // can be set to true to send a stop signal, as soon as thats detected we stop searching.
+    // volatile so that helper threads (see below) notice it being set by the main thread
+    volatile boolean stopSignal;
 
     // 0=normal, 1=depth, 2=nodes, 3=movetime, 4=infinite
     short mode;
@@ -15,11 +14,101 @@ public class SearchThread extends Thread {
     long btime;
     long winc;
     long binc;
+    int movesToGo = 0;  // moves left until the next time control, 0 if unknown
+
+    // extra limits that can be set on top of the mode, 0 for none. the node limit is exact: the search never
+    // visits more nodes than this (and is always single threaded, see run())
+    long nodeLimit = 0;
+    int depthLimit = 0;  // deepest iteration to search
+    int mateLimit = 0;  // stop once a mate in this many moves (or fewer) has been found
+
+    // whether quiesce() skips captures that lose material, see setSeePruning()
+    boolean seePruning = true;
+
+    // decides when timed searches (modes 0 and 3) stop, null otherwise
+    TimeManager timeManager = null;
+    long moveOverheadMs = Constants.DEFAULT_MOVE_OVERHEAD_MS;
+
+    // pondering: searching on the opponent's time, in the position after the move we expect them to play. timed
+    // searches ignore the clock until ponderHit() (they guessed right, so carry on as a normal search), or are stopped
+    volatile boolean pondering = false;
+    private final Object ponderLock = new Object();  // waited on once a ponder search runs out of depth
+
+    // if not null, only these root moves are searched
+    int[] searchMoves = null;
+    int numRootMoves;  // number of legal moves at the root that can be searched
+
+    // multipv: the best few root moves are each searched with their own window, by searching the root again
+    // without the moves already chosen. the lines are kept best first, with scores from white's point of view.
+    // all the lines share the transposition table, so later ones are much cheaper than the first
+    // https://www.chessprogramming.org/Principal_Variation#Multiple_PVs
+    int multiPv = 1;
+    int pvIndex = 0;  // line currently being searched
+    int[][] pvLines = new int[1][Constants.MAX_SEARCH_PLY];  // packed moves (see PackedMove), starting with the root move
+    int[] pvLineLengths = new int[1];
+    int[] pvScores = new int[1];
+
+    // triangular pv table: pvTable[ply] is the best line found so far from the position at ply, pvLengths[ply]
+    // moves long. a node builds its line from its best move and the line of the node after it
+    // https://www.chessprogramming.org/Triangular_PV-Table
+    final int[][] pvTable = new int[Constants.MAX_SEARCH_PLY + 1][Constants.MAX_SEARCH_PLY];
+    final int[] pvLengths = new int[Constants.MAX_SEARCH_PLY + 1];
+
+    // number of positions visited (by this thread), counted on entry to negamax() and quiesce()
+    long nodes;
+    long qnodes;  // the ones of those that were in quiesce()
+    long startTime;  // System.nanoTime() at the start of the search
 
     // position to start search tree from
     Board rootPos;
 
-    Move bestMove;
+    // private copy of rootPos which moves are made and unmade on during the search
+    Board searchPos;
+
+    // one reusable move list and move picker per ply so that no moves are allocated during the search
+    final MoveList[] moveLists = new MoveList[Constants.MAX_SEARCH_PLY];
+    final MovePicker[] movePickers = new MovePicker[Constants.MAX_SEARCH_PLY];
+
+    // results of previous searches, kept between iterations (and between searches if the same table is given)
+    TranspositionTable transpositionTable;
+
+    // lazy smp: the main search thread starts helpers which search the same position at the same time on
+    // their own board copies. they only share the transposition table, so each one benefits from what the others
+    // have already searched. helpers skip some depths (see skipDepth()) so that not everyone searches the same one.
+    // https://www.chessprogramming.org/Lazy_SMP
+    int numThreads = 1;
+    int helperId = 0;  // 0 for the main thread
+    SearchThread[] helpers = new SearchThread[0];
+
+    // whether to print uci info lines as the search progresses
+    boolean printInfo = false;
+
+    // quiet move ordering state, see MoveOrdering.score(). 2 killer moves per ply, and a history score for each
+    // from and to square pair per side (0=white, 1=black) which is halved every iteration so newer results count more
+    // https://www.chessprogramming.org/Killer_Heuristic
+    // https://www.chessprogramming.org/History_Heuristic
+    final int[][] killers = new int[Constants.MAX_SEARCH_PLY][2];
+    final int[][] history = new int[2][64 * 64];
+
+    // which depths each helper skips, by (helperId - 1) % 20: depths are taken in blocks of skipSizes[i] in a row,
+    // and every other block is skipped. skipPhases[i] shifts where the blocks start, so helpers with the same block
+    // size are spread out over different depths
+    private final static int[] skipSizes = {1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4};
+    private final static int[] skipPhases = {0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7};
+
+    // late move reductions by [depth][move number], see negamax()
+    private final static int[][] reductions = new int[Constants.MAX_SEARCH_PLY][Constants.MAX_MOVES_PER_POSITION];
+    static {
+        for (int depth = 1; depth < reductions.length; depth++) {
+            for (int i = 1; i < reductions[depth].length; i++) {
+                reductions[depth][i] = (int)(Constants.LMR_BASE + Math.log(depth) * Math.log(i) / Constants.LMR_DIVISOR);
+            }
+        }
+    }
+
+    int bestMove;  // packed, see PackedMove
+    int ponderMove = PackedMove.NONE;  // packed, see findPonderMove()
+    int score;  // int form of eval, see Evaluation.toScore()
     Evaluation eval;
     int maxDepthReached;
 
@@ -45,10 +134,12 @@ public class SearchThread extends Thread {
             case 0:
                 // search with fixed depth goal
                 this.mode = 1;
+                this.value = Math.min(this.value, Constants.MAX_MINIMAX_DEPTH);
                 break;
             case 1:
                 // search with fixed node count goal
                 this.mode = 2;
+                this.nodeLimit = this.value;
                 break;
             case 2:
                 // search with fixed / precalculated goal time to take
@@ -67,228 +158,697 @@ public class SearchThread extends Thread {
         this.mode = 4;
     }
 
+    // helper thread for lazy smp, searches infinitely until stopped by the main thread
+    private SearchThread(Board rootPos, TranspositionTable transpositionTable, int helperId, int[] searchMoves) {
+        this(rootPos);
+        this.transpositionTable = transpositionTable;
+        this.helperId = helperId;
+        this.searchMoves = searchMoves;
+    }
+
     public void run() {
+        this.startTime = System.nanoTime();
+        this.nodes = 0;
+        this.qnodes = 0;
+
+        if (this.helperId == 0) {
+            if (this.transpositionTable == null) this.transpositionTable = new TranspositionTable(Constants.TT_DEFAULT_SIZE_MB);
+            this.transpositionTable.newSearch();
+
+            // start up helpers, they are stopped again once this thread has finished searching. node limited
+            // searches only ever use this thread, as the point of them is to give the same result every time
+            this.helpers = new SearchThread[(this.nodeLimit > 0) ? 0 : this.numThreads - 1];
+            for (int i = 0; i < this.helpers.length; i++) {
+                this.helpers[i] = new SearchThread(this.rootPos, this.transpositionTable, i + 1, this.searchMoves);
+                this.helpers[i].start();
+            }
+        }
+
+        // the root position may be shared with other threads so never modify it directly
+        this.searchPos = new Board(this.rootPos);
+        for (int i = 0; i < this.moveLists.length; i++) {
+            if (this.moveLists[i] == null) this.moveLists[i] = new MoveList();
+            if (this.movePickers[i] == null) this.movePickers[i] = new MovePicker();
+        }
+
         // set some placeholder values before real ones calculated
-        if (this.rootPos.getLegalMoveCount() != 0) this.bestMove = this.rootPos.getLegalMoves().get(0);
+        this.searchPos.generateLegalMoves(this.moveLists[0]);
+        this.bestMove = PackedMove.NONE;
+        this.numRootMoves = 0;
+        for (int i = 0; i < this.moveLists[0].size(); i++) {
+            if (!this.isRootMoveAllowed(this.moveLists[0].get(i))) continue;
+            if (this.bestMove == PackedMove.NONE) this.bestMove = this.moveLists[0].get(i);
+            this.numRootMoves++;
+        }
+        this.score = 0;
         this.eval = new Evaluation(0);
         this.maxDepthReached = 0;
 
 
         // handle time-based stuff if in one of the relevant modes
         if (mode == 0 || mode == 3) {
-            long myTimeMs;
-            long myIncMs;
-            long goalTimeMs = 0;
-
-            // calculate a reasonable goal time using time left and move count if in mode0(normal)
             if (mode == 0) {
                 // figure out which time and increment are our's
-                if (this.rootPos.getSideToMove() == Colour.White) {
-                    myTimeMs = wtime;
-                    myIncMs = winc;
-                } else {
-                    myTimeMs = btime;
-                    myIncMs = binc;
-                }
-
-                // take an educated (very approximate) guess at how many more moves we will have to make this game
-                // to be safe, this guess is quite conservative i.e. most likely bigger than it needs to be
-                int estMovesLeft = 40;
-                if (this.rootPos.getMoveNumber() > 20) estMovesLeft -= (this.rootPos.getMoveNumber() - 20) / (3/2);
-                estMovesLeft = Math.max(10, estMovesLeft);  // make sure this doesnt drop below a certain threshold
-                
-                // create a reasonable search time goal to aim for, e.g. 100s and 40 moves left, use 100/40 = 2.5s for this move
-                // also account for increment if applicable
-                if (myIncMs > 0) goalTimeMs = (myTimeMs + (estMovesLeft * myIncMs)/2) / estMovesLeft;
-                else goalTimeMs = myTimeMs / estMovesLeft;
-            }
-
-            // set goaltime if in mode3(goaltime)
-            if (mode == 3) {
-                goalTimeMs = value;
+                final boolean white = this.rootPos.getSideToMove() == Colour.White;
+                this.timeManager = new TimeManager(this.startTime, white ? this.wtime : this.btime, white ? this.winc : this.binc,
+                                                   this.movesToGo, this.rootPos.getMoveNumber(), this.moveOverheadMs);
+            } else {
+                this.timeManager = new TimeManager(this.startTime, this.value, this.moveOverheadMs);
             }
 
-            // setup parameters used to decide when to stop
+            // do iterative deepening search using underlying search function
+            // decides when to stop going deeper based on the time manager, which can also stop an iteration part way
             long lastIterTimeMs = 0;
-            long passedTimeMs = 0;
-            int idsDepth = 0;
-
-            // do iterative deepening search using underlying minimax function
-            // decides when to stop going deeper based on goal time
-            while (idsDepth <= Constants.MAX_MINIMAX_DEPTH && !stopSignal) {
-                long iterStartTime = System.nanoTime();
-                minimax(this.rootPos, idsDepth, this.rootPos.getSideToMove() == Colour.White);
-                lastIterTimeMs = (System.nanoTime() - iterStartTime)/1000000;
-                passedTimeMs += lastIterTimeMs;
-
-                // stop searching if we've taken longer than goal time or are too close to continue
-                if (passedTimeMs + 2*lastIterTimeMs >= goalTimeMs) {
-                    stopSignal = true;
-                    break;
-                }
+            final int goalDepth = (this.depthLimit > 0) ? Math.min(this.depthLimit, Constants.MAX_MINIMAX_DEPTH) : Constants.MAX_MINIMAX_DEPTH;
+            for (int idsDepth = 1; idsDepth <= goalDepth && !stopSignal; idsDepth++) {
+                final long iterStartTime = System.nanoTime();
+                this.searchRoot(idsDepth);
+                lastIterTimeMs = (System.nanoTime() - iterStartTime) / 1000000;
+                if (stopSignal) break;
 
                 this.maxDepthReached = idsDepth;
-                idsDepth++;
+                this.reportIteration(idsDepth);
+                this.timeManager.iterationComplete(idsDepth, this.bestMove, sideScore(this.score, this.rootPos));
+
+                // keep searching as long as we're pondering, there's no hurry yet
+                if (this.pondering) continue;
+
+                // nothing to think about with only one legal move, play it straight away
+                if (mode == 0 && this.numRootMoves == 1) break;
+
+                if (!this.timeManager.shouldStartIteration(lastIterTimeMs) || this.mateLimitReached()) break;
             }
         }
         
-        if (mode == 1 || mode == 4) { // fixed depth mode OR infinite search mode
+        if (mode == 1 || mode == 2 || mode == 4) { // fixed depth mode OR fixed node count mode OR infinite search mode
             long goalDepth = this.value;
+            if (mode == 2) goalDepth = Constants.MAX_MINIMAX_DEPTH;  // the node limit stops the search, see below
+            if (this.depthLimit > 0) goalDepth = Math.min(goalDepth, this.depthLimit);
             if (mode == 4) goalDepth = Long.MAX_VALUE;
 
             // basic fixed depth approach (but still ids)
-            for (int i = 0; i <= goalDepth; i++) {
+            for (int i = 1; i <= goalDepth; i++) {
                 if (stopSignal) break;
-                minimax(this.rootPos, i, this.rootPos.getSideToMove() == Colour.White);
+                if (this.skipDepth(i)) continue;
+                this.searchRoot(i);
                 // System.out.println("Completed search to depth " + i + "/" + goalDepth);
 
-                this.maxDepthReached = i;
+                if (!stopSignal) {
+                    this.maxDepthReached = i;
+                    this.reportIteration(i);
+                }
+
+                // infinite searches keep going until told to stop, whatever they find
+                if (mode != 4 && this.mateLimitReached()) break;
             }
         }
 
-        if (mode == 2) { // fixed node count mode
-            // TODO
-        }
 
+        // bestmove can't be sent while pondering, so if the search ran out of depth wait to be told what to do.
+        // ponderHit() and sendStopSignal() wake this up
+        synchronized (this.ponderLock) {
+            while (this.pondering && !this.stopSignal) {
+                try {
+                    this.ponderLock.wait();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
 
         // if the bottom of this method is reached, everything is finished.
         // set the stop signal just to make this clear
         stopSignal = true;
+
+        if (this.helperId == 0) {
+            this.collectHelperResults();
+            this.ponderMove = this.findPonderMove();
+        }
+    }
+
+    // the reply we expect to our best move, which is the second move of the pv. if the pv stops after the best
+    // move (e.g. it was cut short by a table hit) the best move stored for the position after it is used instead.
+    // PackedMove.NONE if neither is known
+    private int findPonderMove() {
+        if (this.bestMove == PackedMove.NONE) return PackedMove.NONE;
+        if (this.pvLines[0][0] == this.bestMove && this.pvLineLengths[0] >= 2) return this.pvLines[0][1];
+
+        Board pos = new Board(this.rootPos);
+        pos.makeMove(this.bestMove);
+        final long entry = this.transpositionTable.probe(pos.getZobristKey());
+        final int move = (entry == 0) ? PackedMove.NONE : TranspositionTable.move(entry);
+        return MoveGeneration.isLegal(pos, move) ? move : PackedMove.NONE;
     }
 
-    // minimax reference: https://www.youtube.com/watch?v=l-hh51ncgDI
+    // checked on entry to every node. a node limited search ('go nodes') stops as soon as the limit is hit, so
+    // exactly that many get searched. timed searches look at the clock every so often, so that one long iteration
+    // can't run far past the deadline. the first iteration is always finished so that there is a move to play
+    private boolean limitReached() {
+        if (this.nodeLimit > 0 && this.nodes >= this.nodeLimit) {
+            this.stopSignal = true;
+        } else if (this.timeManager != null && (this.nodes & (Constants.TIME_CHECK_INTERVAL - 1)) == 0 &&
+                   this.maxDepthReached > 0 && !this.pondering && this.timeManager.hardLimitReached()) {
+            this.stopSignal = true;
+        }
+        return this.stopSignal;
+    }
 
-    // wrapper function with minimal arguments
-    private Evaluation minimax(Board pos, int depth, boolean max) {
-        return minimax(pos, depth, true, max, new Evaluation(Colour.Black), new Evaluation(Colour.White));
+    // helpers skip depths so that they don't all search the same depth at the same time, see skipSizes
+    private boolean skipDepth(int depth) {
+        if (this.helperId == 0) return false;
+        final int i = (this.helperId - 1) % skipSizes.length;
+        return ((depth + this.rootPos.getMoveNumber() + skipPhases[i]) / skipSizes[i]) % 2 != 0;
     }
 
-    private Evaluation minimaxCaptures(Board pos, boolean max, Evaluation alpha, Evaluation beta) {
-        final Evaluation currentStaticEval = HeuristicEval.evaluate(pos);
-        
-        // update pruning params with static eval
-        if (max) {
-            if (currentStaticEval.toLong() >= beta.toLong()) return beta;
-            if (currentStaticEval.toLong() >= alpha.toLong()) alpha = currentStaticEval;
-        } else {
-            if (currentStaticEval.toLong() <= alpha.toLong()) return alpha;
-            if (currentStaticEval.toLong() <= beta.toLong()) beta = currentStaticEval;
+    // whether a short enough mate has been found to stop a 'go mate' search, see mateLimit
+    private boolean mateLimitReached() {
+        return this.mateLimit > 0 && sideScore(this.score, this.rootPos) >= Evaluation.SCORE_WIN - (2 * this.mateLimit - 1);
+    }
+
+    // whether a move can be searched at the root, see searchMoves
+    // and also, with multipv, those already chosen for an earlier line this iteration
+    private boolean isRootMoveAllowed(int move) {
+        for (int i = 0; i < this.pvIndex; i++) {
+            if (this.pvLines[i][0] == move) return false;
         }
-        
-        // filter for only capturing moves
-        ArrayList<Move> moves = pos.getLegalMoves();
-        ArrayList<Move> capturingMoves = new ArrayList<Move>();
-        for (Move m : moves) {
-            if (m.getType() == MoveType.enPassant) {
-                capturingMoves.add(m);
-            } else if (pos.pieceAt(m.getCoord()).getType() != PieceType.empty && m.getType() != MoveType.castling) {
-                capturingMoves.add(m);
+
+        if (this.searchMoves == null) return true;
+        for (int m : this.searchMoves) {
+            if (m == move) return true;
+        }
+        return false;
+    }
+
+    // stops all helper threads, and takes the result of whichever thread completed the deepest search
+    // (this thread wins ties) as the result of the whole search. helpers only ever search one line, so with
+    // multipv the result always comes from this thread so that it matches the lines reported
+    private void collectHelperResults() {
+        for (SearchThread helper : this.helpers) {
+            helper.sendStopSignal();
+        }
+
+        for (SearchThread helper : this.helpers) {
+            try {
+                helper.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+
+            if (this.multiPv == 1 && helper.maxDepthReached > this.maxDepthReached && helper.bestMove != PackedMove.NONE) {
+                this.bestMove = helper.bestMove;
+                this.score = helper.score;
+                this.eval = helper.eval;
+                this.maxDepthReached = helper.maxDepthReached;
+                System.arraycopy(helper.pvLines[0], 0, this.pvLines[0], 0, helper.pvLineLengths[0]);
+                this.pvLineLengths[0] = helper.pvLineLengths[0];
+                this.pvScores[0] = helper.pvScores[0];
             }
         }
-        
-        // no capturing moves to check, pos is 'quiet', just return this basic eval
-        if (capturingMoves.size() == 0) return currentStaticEval;
+    }
 
-        // order moves in a more optimal way
-        capturingMoves = MoveOrdering.reorder(capturingMoves);
+    // search reference: https://www.chessprogramming.org/Principal_Variation_Search
+    //
+    // the search is negamax, so inside it scores are ints from the point of view of the side to move at each
+    // node (the static eval and game over scores are from white's view, see sideScore()). a game won at some
+    // ply of the search is scored as SCORE_WIN - ply, so faster mates are preferred and the score at the root
+    // directly gives the number of plies to mate
+
+    // searches the root to the given depth. the window starts out narrow around the score of the previous
+    // iteration, as the score usually doesn't change much from one depth to the next and a narrower window
+    // gets more cutoffs. if the real score turns out to be outside of it the window is widened and the
+    // position searched again
+    // https://www.chessprogramming.org/Aspiration_Windows
+    private void searchRoot(int depth) {
+        for (int[] sideHistory : this.history) {
+            for (int i = 0; i < sideHistory.length; i++) sideHistory[i] /= 2;
+        }
 
-        Evaluation bestEvalHere = currentStaticEval;
+        final int numLines = Math.max(1, Math.min(this.multiPv, this.numRootMoves));
+        for (this.pvIndex = 0; this.pvIndex < numLines && !this.stopSignal; this.pvIndex++) {
+            final int previous = sideScore((this.pvIndex == 0) ? this.score : this.pvScores[this.pvIndex], this.rootPos);
+            int delta = Constants.ASPIRATION_WINDOW;
+            int alpha = -Evaluation.SCORE_INFINITE;
+            int beta = Evaluation.SCORE_INFINITE;
+
+            // shallow searches are cheap and too unstable to guess a window for, and mate scores jump around too much
+            if (depth >= Constants.ASPIRATION_MIN_DEPTH && Math.abs(previous) < Evaluation.SCORE_MATE_BOUND) {
+                alpha = Math.max(previous - delta, -Evaluation.SCORE_INFINITE);
+                beta = Math.min(previous + delta, Evaluation.SCORE_INFINITE);
+            }
 
-        // there are some capturing moves here, check them all recursively until quiet pos found
-        if (max) {
-            for (Move m : capturingMoves) {
-                Evaluation eval = minimaxCaptures(m.simulate(), false, alpha, beta);
+            while (!this.stopSignal) {
+                final int result = negamax(this.searchPos, depth, 0, alpha, beta, true);
 
-                if (eval.toLong() >= beta.toLong()) return beta;
-                if (eval.toLong() > bestEvalHere.toLong()) bestEvalHere = eval; // max
-                if (eval.toLong() > alpha.toLong()) alpha = eval;
-                if (beta.toLong() <= alpha.toLong()) break;
+                // fail low or fail high, widen the window on the side that failed, by more each time
+                if (result <= alpha) {
+                    alpha = Math.max(alpha - delta, -Evaluation.SCORE_INFINITE);
+                } else if (result >= beta) {
+                    beta = Math.min(beta + delta, Evaluation.SCORE_INFINITE);
+                } else {
+                    break;
+                }
+                delta *= 2;
             }
-        } else {
-            for (Move m : capturingMoves) {
-                Evaluation eval = minimaxCaptures(m.simulate(), true, alpha, beta);
-
-                if (eval.toLong() <= alpha.toLong()) return alpha;
-                if (eval.toLong() < bestEvalHere.toLong()) bestEvalHere = eval; // min
-                if (eval.toLong() < beta.toLong()) beta = eval;
-                if (beta.toLong() <= alpha.toLong()) break;
+        }
+        this.pvIndex = 0;
+
+        // a later line can come out slightly better than an earlier one (the search isn't perfectly consistent),
+        // so put them back in order
+        if (!this.stopSignal && numLines > 1) this.sortLines(numLines);
+    }
+
+    // sorts the first numLines multipv lines best first (for the side to move), and makes the best one the result
+    private void sortLines(int numLines) {
+        for (int i = 1; i < numLines; i++) {
+            final int[] line = this.pvLines[i];
+            final int length = this.pvLineLengths[i];
+            final int score = this.pvScores[i];
+            int j = i - 1;
+            while (j >= 0 && sideScore(this.pvScores[j], this.rootPos) < sideScore(score, this.rootPos)) {
+                this.pvLines[j + 1] = this.pvLines[j];
+                this.pvLineLengths[j + 1] = this.pvLineLengths[j];
+                this.pvScores[j + 1] = this.pvScores[j];
+                j--;
             }
+            this.pvLines[j + 1] = line;
+            this.pvLineLengths[j + 1] = length;
+            this.pvScores[j + 1] = score;
         }
 
-        return bestEvalHere.tick();
+        this.bestMove = this.pvLines[0][0];
+        this.score = this.pvScores[0];
+        this.eval = Evaluation.fromScore(this.score);
     }
 
-    // main minimax function
-    private Evaluation minimax(Board pos, int depth, boolean isRoot, boolean max, Evaluation alpha, Evaluation beta) {
-        // do not keep searching if stop signal was detected, just return placeholder eval to get ignored
-        if (stopSignal) {
-            return max ? new Evaluation(Colour.Black) : new Evaluation(Colour.White);
+    // called when a quiet move caused a beta cutoff. it becomes a killer for this ply, and its history score is
+    // raised while the quiet moves searched before it (which didn't cause a cutoff) are lowered
+    private void updateQuietStats(int move, MoveList quietsSearched, int ply, int side, int depth) {
+        if (this.killers[ply][0] != move) {
+            this.killers[ply][1] = this.killers[ply][0];
+            this.killers[ply][0] = move;
         }
 
-        if (pos.getGameState() != GameState.Ongoing) {
-            return HeuristicEval.evaluate(pos);
+        final int bonus = Math.min(depth * depth, Constants.HISTORY_MAX);
+        this.addHistory(side, move, bonus);
+        for (int i = 0; i < quietsSearched.size(); i++) {
+            this.addHistory(side, quietsSearched.get(i), -bonus);
         }
+    }
+
+    // the more extreme a score already is the less it moves, which keeps it within +-HISTORY_MAX
+    private void addHistory(int side, int move, int bonus) {
+        final int index = PackedMove.from(move) * 64 + PackedMove.to(move);
+        this.history[side][index] += bonus - this.history[side][index] * Math.abs(bonus) / Constants.HISTORY_MAX;
+    }
+
+    // converts a score from white's point of view to the point of view of the side to move in pos (or back again)
+    private static int sideScore(int score, Board pos) {
+        return (pos.getSideToMove() == Colour.White) ? score : -score;
+    }
+
+    // mate scores in the transposition table are stored relative to the position they belong to rather than
+    // the root, as the same position could be reached at a different ply next time
+    private static int scoreToTable(int score, int ply) {
+        if (score >= Evaluation.SCORE_MATE_BOUND) return score + ply;
+        if (score <= -Evaluation.SCORE_MATE_BOUND) return score - ply;
+        return score;
+    }
 
-        if (depth == 0) {
-            return minimaxCaptures(pos, max, alpha, beta);
+    private static int scoreFromTable(int score, int ply) {
+        if (score >= Evaluation.SCORE_MATE_BOUND) return score - ply;
+        if (score <= -Evaluation.SCORE_MATE_BOUND) return score + ply;
+        return score;
+    }
+
+    // quiescence search, only looks at captures and promotions until the position is quiet. when in check every
+    // way out of check is looked at instead, as standing pat isn't an option and they're needed to spot checkmate.
+    // (draws by repetition or the 50 move rule can't happen here as captures reset the halfmove clock, and they
+    // were already checked for in negamax() before getting here)
+    private int quiesce(Board pos, int ply, int alpha, int beta) {
+        if (this.limitReached()) return 0;
+        this.nodes++;
+        this.qnodes++;
+
+        final boolean inCheck = pos.isCheck();
+        int bestEvalHere = -Evaluation.SCORE_INFINITE;
+
+        if (!inCheck) {
+            final int currentStaticEval = sideScore(HeuristicEval.evaluate(pos), pos);
+
+            // can't go any deeper, just return the static eval
+            if (ply >= Constants.MAX_SEARCH_PLY) return currentStaticEval;
+
+            // update pruning params with static eval, we can always choose not to capture anything
+            if (currentStaticEval >= beta) return beta;
+            if (currentStaticEval > alpha) alpha = currentStaticEval;
+            bestEvalHere = currentStaticEval;
+        } else if (ply >= Constants.MAX_SEARCH_PLY) {
+            return sideScore(HeuristicEval.evaluate(pos), pos);
         }
-        
-        ArrayList<Move> legalMoves = pos.getLegalMoves();
+
+        MoveList moves = this.moveLists[ply];
+        pos.generateQuiescenceMoves(moves);
+
+        // no way out of check
+        if (inCheck && moves.size() == 0) return -Evaluation.SCORE_WIN + ply;
+
         // order moves in a more optimal way
-        legalMoves = MoveOrdering.reorder(legalMoves);
-
-        Evaluation bestEvalHere;
-        Move bestMoveHere = legalMoves.get(0);
-
-        if (max) {
-            bestEvalHere = new Evaluation(Colour.Black); // track maximum
-            for (Move m : legalMoves) {
-                Evaluation eval = minimax(m.simulate(), depth-1, false, false, alpha, beta);
-                if (eval.toLong() > bestEvalHere.toLong()) {
-                    bestEvalHere = eval;
-                    bestMoveHere = m;
-                }
-                if (eval.toLong() > alpha.toLong()) alpha = eval;
-                if (beta.toLong() <= alpha.toLong()) {
-                    break;
+        MoveOrdering.score(moves, pos, PackedMove.NONE, null, null);
+
+        // check them all recursively until quiet pos found
+        for (int i = 0; i < moves.size(); i++) {
+            final int m = moves.pickNext(i);
+
+            // captures that just lose material (see Board.see()) can't do better than standing pat
+            if (!inCheck && this.seePruning && MoveOrdering.isLosingCapture(moves.getScore(i))) continue;
+
+            pos.makeMove(m);
+            int eval = -quiesce(pos, ply+1, -beta, -alpha);
+            pos.unmakeMove();
+
+            if (eval >= beta) return beta;
+            if (eval > bestEvalHere) bestEvalHere = eval;
+            if (eval > alpha) alpha = eval;
+        }
+
+        return bestEvalHere;
+    }
+
+    // main search function. the first move (usually the best one, thanks to move ordering) is searched with the
+    // full window, then the rest are only checked to be worse than it with a null window, which is much cheaper.
+    // if one turns out not to be worse it has to be searched again with the full window.
+    // allowNull is false straight after a null move (see below), so that two are never made in a row
+    private int negamax(Board pos, int depth, int ply, int alpha, int beta, boolean allowNull) {
+        // no line from here until a move beats alpha
+        this.pvLengths[ply] = 0;
+
+        // do not keep searching if stop signal was detected, just return placeholder eval to get ignored
+        if (this.limitReached()) return 0;
+
+        // draws by the 50 move rule or repetition. checkmate and stalemate are found below, once there turn out
+        // to be no moves to search, rather than generating every move up front just to check
+        if (pos.getHalfMoveNumber() >= 100 || pos.getRepetitionCount() >= 3) return 0;
+
+        if (depth == 0 || ply >= Constants.MAX_SEARCH_PLY) {
+            return quiesce(pos, ply, alpha, beta);
+        }
+        this.nodes++;  // counted in quiesce() otherwise
+
+        // look this position up in the transposition table. if it was searched at least this deep before,
+        // the stored result might be enough to stop here (never at the root, as we need a move from there)
+        final long key = pos.getZobristKey();
+        final long entry = this.transpositionTable.probe(key);
+        int hashMove = PackedMove.NONE;
+        if (entry != 0) {
+            hashMove = TranspositionTable.move(entry);
+
+            if (ply > 0 && TranspositionTable.depth(entry) >= depth) {
+                final int score = scoreFromTable(TranspositionTable.score(entry), ply);
+                final int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.BOUND_EXACT ||
+                    (bound == TranspositionTable.BOUND_LOWER && score >= beta) ||
+                    (bound == TranspositionTable.BOUND_UPPER && score <= alpha)) {
+                    return score;
                 }
             }
-        } else {
-            bestEvalHere = new Evaluation(Colour.White); // track minimum
-            for (Move m : legalMoves) {
-                Evaluation eval = minimax(m.simulate(), depth-1, false, true, alpha, beta);
-                if (eval.toLong() < bestEvalHere.toLong()) {
-                    bestEvalHere = eval;
-                    bestMoveHere = m;
+        }
+
+        // null move pruning: let the opponent move twice in a row by passing our turn. if a reduced depth search
+        // still can't get them back under beta, our real moves almost certainly won't either so give up here.
+        // only done in null window nodes that already look good enough, and not in check (passing would be illegal)
+        // https://www.chessprogramming.org/Null_Move_Pruning
+        final boolean inCheck = pos.isCheck();
+        final boolean pvNode = beta - alpha > 1;
+        if (allowNull && ply > 0 && depth >= Constants.NULL_MOVE_MIN_DEPTH && !pvNode &&
+            Math.abs(beta) < Evaluation.SCORE_MATE_BOUND && !inCheck) {
+            // this fails in zugzwang, where passing would be better than any real move. thats very likely if
+            // we only have pawns left so don't try it then, and check the result with a normal search if we
+            // have just one other piece
+            final long[] bitboards = pos.getBitboards();
+            final int offset = (pos.getSideToMove() == Colour.White) ? 0 : 6;
+            final int numPieces = Long.bitCount(pos.getOccupancy(pos.getSideToMove()) &
+                                                ~bitboards[offset + PieceType.pawn.ordinal()] &
+                                                ~bitboards[offset + PieceType.king.ordinal()]);
+
+            if (numPieces > 0 && sideScore(HeuristicEval.evaluate(pos), pos) >= beta) {
+                // reduce more the deeper the search
+                final int reduction = Constants.NULL_MOVE_REDUCTION + depth / Constants.NULL_MOVE_REDUCTION_DIVISOR;
+
+                pos.makeNullMove();
+                int eval = -negamax(pos, Math.max(0, depth - 1 - reduction), ply+1, -beta, -beta+1, false);
+                pos.unmakeNullMove();
+                if (this.stopSignal) return 0;
+
+                if (eval >= beta) {
+                    // the null move can't prove a mate, we haven't actually looked at our moves
+                    if (eval >= Evaluation.SCORE_MATE_BOUND) eval = beta;
+
+                    if (numPieces > 1) return eval;
+
+                    final int verified = negamax(pos, Math.max(0, depth - reduction), ply, beta-1, beta, false);
+                    if (this.stopSignal) return 0;
+                    if (verified >= beta) return eval;
                 }
-                if (eval.toLong() < beta.toLong()) beta = eval;
-                if (beta.toLong() <= alpha.toLong()) {
-                    break;
+            }
+        }
+
+        // remember the original window to tell what kind of bound the result is
+        final int originalAlpha = alpha;
+
+        // moves come in a more optimal order, trying the best move from last time first (see MovePicker)
+        final int side = (pos.getSideToMove() == Colour.White) ? 0 : 1;
+        MovePicker picker = this.movePickers[ply];
+        picker.init(pos, hashMove, this.killers[ply], this.history[side]);
+
+        MoveList quietsSearched = this.moveLists[ply];
+        quietsSearched.clear();
+        this.pvLengths[ply] = 0;  // the null move verification search above might have left a line here
+
+        int bestEvalHere = -Evaluation.SCORE_INFINITE;
+        int bestMoveHere = PackedMove.NONE;
+
+        int i = 0;  // index of the move being searched
+        for (int m = picker.next(); m != PackedMove.NONE; m = picker.next(), i++) {
+            // 'go searchmoves' can leave some moves out at the root. they don't count towards i either
+            if (ply == 0 && !this.isRootMoveAllowed(m)) {
+                i--;
+                continue;
+            }
+
+            final boolean quiet = MovePicker.isQuiet(pos, m);
+            pos.makeMove(m);
+            int eval;
+            if (i == 0) {
+                eval = -negamax(pos, depth-1, ply+1, -beta, -alpha, true);
+            } else {
+                // late move reductions: moves ordered this late are unlikely to be any good, so quiet ones are
+                // searched less deeply first. checks (given or escaped) are left alone as they're too sharp for that.
+                // if a reduced search does beat alpha, it's searched again at full depth
+                // https://www.chessprogramming.org/Late_Move_Reductions
+                int reduction = 0;
+                if (depth >= Constants.LMR_MIN_DEPTH && i >= Constants.LMR_MIN_MOVE_NUMBER && quiet && !inCheck && !pos.isCheck()) {
+                    reduction = reductions[Math.min(depth, reductions.length - 1)][i];
+                    if (pvNode) reduction--;
+                    // reduce moves that have often been good elsewhere less, and ones that haven't more
+                    reduction -= this.history[side][PackedMove.from(m) * 64 + PackedMove.to(m)] / (Constants.HISTORY_MAX / 2);
+                    reduction = Math.max(0, Math.min(reduction, depth - 2));
                 }
+
+                eval = -negamax(pos, depth-1-reduction, ply+1, -alpha-1, -alpha, true);
+                if (reduction > 0 && eval > alpha) eval = -negamax(pos, depth-1, ply+1, -alpha-1, -alpha, true);
+                if (eval > alpha && eval < beta) eval = -negamax(pos, depth-1, ply+1, -beta, -alpha, true);
+            }
+            pos.unmakeMove();
+            if (this.stopSignal) break;  // eval is only a placeholder if the search was stopped
+
+            if (eval > bestEvalHere) {
+                bestEvalHere = eval;
+                bestMoveHere = m;
             }
+            if (eval > alpha) {
+                alpha = eval;
+                // the best line from here is this move followed by the best line from the position after it
+                this.pvTable[ply][0] = m;
+                System.arraycopy(this.pvTable[ply + 1], 0, this.pvTable[ply], 1, this.pvLengths[ply + 1]);
+                this.pvLengths[ply] = this.pvLengths[ply + 1] + 1;
+            }
+            if (alpha >= beta) {
+                if (quiet) this.updateQuietStats(m, quietsSearched, ply, side, depth);
+                break;
+            }
+            if (quiet) quietsSearched.add(m);
         }
 
-        // if the best position after next move is 1-0, this is +M1, if +M1 then +M2 etc
-        bestEvalHere.tick();
+        // no legal moves, its either checkmate or stalemate
+        if (bestMoveHere == PackedMove.NONE && !this.stopSignal) return inCheck ? -Evaluation.SCORE_WIN + ply : 0;
 
-        // to be executed on the head / root pos (for this minimax search) only
-        if (isRoot) {
-            this.eval = bestEvalHere;
-            this.bestMove = bestMoveHere;
+        // results from an interrupted search can't be trusted so aren't stored. neither are root results that
+        // leave some moves out (later multipv lines, or 'go searchmoves'), as they might not have the real best move
+        if (!this.stopSignal && (ply > 0 || (this.pvIndex == 0 && this.searchMoves == null))) {
+            int bound = TranspositionTable.BOUND_EXACT;
+            if (bestEvalHere >= beta) bound = TranspositionTable.BOUND_LOWER;
+            else if (bestEvalHere <= originalAlpha) bound = TranspositionTable.BOUND_UPPER;
+            this.transpositionTable.store(key, depth, bound, scoreToTable(bestEvalHere, ply), bestMoveHere);
+        }
+
+        // to be executed on the head / root pos (for this search) only. if every move failed low the best move
+        // isn't known, and if the search was stopped before one was fully searched keep the last iteration's result
+        if (ply == 0 && bestEvalHere > originalAlpha) {
+            // the last move to beat alpha was the best one, so the line in the pv table starts with it
+            System.arraycopy(this.pvTable[0], 0, this.pvLines[this.pvIndex], 0, this.pvLengths[0]);
+            this.pvLineLengths[this.pvIndex] = this.pvLengths[0];
+            this.pvScores[this.pvIndex] = sideScore(bestEvalHere, pos);
+            if (this.pvIndex == 0) {
+                this.score = this.pvScores[0];
+                this.eval = Evaluation.fromScore(this.score);
+                this.bestMove = bestMoveHere;
+            }
         }
 
         return bestEvalHere;
     }
 
+    // prints a uci info line about the iteration that was just completed, if enabled
+    private void reportIteration(int depth) {
+        // a depth 0 search only runs the quiescence search, which doesn't choose a move at the root
+        if (!this.printInfo || this.helperId != 0 || depth == 0) return;
+        final long timeMs = (System.nanoTime() - this.startTime) / 1000000;
+        if (this.multiPv == 1) {
+            System.out.println("info depth " + depth + " score " + Evaluation.toUCIScore(this.score, this.rootPos.getSideToMove()) +
+                               " nodes " + this.getNodes() + " time " + timeMs + this.pvString(0));
+            return;
+        }
+
+        // one line per multipv line, numbered from 1
+        final int numLines = Math.min(this.multiPv, this.numRootMoves);
+        for (int i = 0; i < numLines; i++) {
+            System.out.println("info depth " + depth + " multipv " + (i + 1) +
+                               " score " + Evaluation.toUCIScore(this.pvScores[i], this.rootPos.getSideToMove()) +
+                               " nodes " + this.getNodes() + " time " + timeMs + this.pvString(i));
+        }
+    }
+
+    // " pv <moves>" for the given multipv line, or nothing if it has no moves yet
+    private String pvString(int line) {
+        if (this.pvLineLengths[line] == 0) return "";
+        StringBuilder pv = new StringBuilder(" pv");
+        for (int i = 0; i < this.pvLineLengths[line]; i++) {
+            pv.append(' ').append(MoveFactory.toLongAlgebraicStr(this.pvLines[line][i]));
+        }
+        return pv.toString();
+    }
+
     public void sendStopSignal() {
         this.stopSignal = true;
+        synchronized (this.ponderLock) {
+            this.ponderLock.notifyAll();
+        }
+    }
+
+    // start the search as a ponder search, must be called before it is started
+    public void setPondering(boolean pondering) {
+        this.pondering = pondering;
+    }
+
+    // the opponent played the move we were pondering on. the search carries on (keeping everything it has found
+    // so far) but now as a normal search, with the clock starting now
+    public void ponderHit() {
+        if (this.timeManager != null) this.timeManager.restart(System.nanoTime());
+        this.pondering = false;
+        synchronized (this.ponderLock) {
+            this.ponderLock.notifyAll();
+        }
+    }
+
+    // number of threads to search with, including this one. must be called before the search is started
+    public void setThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    // extra limits for the search, see the fields at the top. must be called before the search is started
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = Math.max(0, nodeLimit);
+    }
+
+    public void setDepthLimit(int depthLimit) {
+        this.depthLimit = Math.max(0, depthLimit);
+    }
+
+    public void setMateLimit(int mateLimit) {
+        this.mateLimit = Math.max(0, mateLimit);
+    }
+
+    // losing captures are skipped in quiesce() unless this is turned off (to measure what that saves, see SelfTest).
+    // must be called before the search is started
+    public void setSeePruning(boolean seePruning) {
+        this.seePruning = seePruning;
+    }
+
+    // number of best moves to find (multipv), must be called before the search is started
+    public void setMultiPv(int multiPv) {
+        this.multiPv = Math.max(1, Math.min(Constants.MAX_MULTI_PV, multiPv));
+        this.pvLines = new int[this.multiPv][Constants.MAX_SEARCH_PLY];
+        this.pvLineLengths = new int[this.multiPv];
+        this.pvScores = new int[this.multiPv];
+    }
+
+    // time to keep back on every move for communication delays etc.
+    public void setMoveOverhead(long moveOverheadMs) {
+        this.moveOverheadMs = Math.max(0, moveOverheadMs);
+    }
+
+    public void setMovesToGo(int movesToGo) {
+        this.movesToGo = Math.max(0, movesToGo);
+    }
+
+    // packed moves, see PackedMove. null or empty to search every move
+    public void setSearchMoves(int[] searchMoves) {
+        this.searchMoves = (searchMoves == null || searchMoves.length == 0) ? null : searchMoves;
+    }
+
+    // quiescence nodes searched so far (also counted in getNodes()), including by helper threads
+    public long getQuiescenceNodes() {
+        long total = this.qnodes;
+        for (SearchThread helper : this.helpers) total += helper.qnodes;
+        return total;
+    }
+
+    // nodes searched so far, including by helper threads
+    public long getNodes() {
+        long total = this.nodes;
+        for (SearchThread helper : this.helpers) total += helper.nodes;
+        return total;
+    }
+
+    public void setPrintInfo(boolean printInfo) {
+        this.printInfo = printInfo;
+    }
+
+    // share a transposition table with this search, must be called before it is started
+    public void setTranspositionTable(TranspositionTable transpositionTable) {
+        this.transpositionTable = transpositionTable;
     }
 
     public Evaluation getEval() {
         return this.eval;
     }
 
+    // returns the best move found as a Move object belonging to the root position, or null if there is none
     public Move getBestMove() {
+        if (this.bestMove == PackedMove.NONE) return null;
+        return MoveFactory.fromPacked(this.bestMove, this.rootPos);
+    }
+
+    // move to ponder on after playing the best move, null if not known. only available once the search has finished
+    public Move getPonderMove() {
+        if (this.ponderMove == PackedMove.NONE) return null;
+        Board pos = new Board(this.rootPos);
+        pos.makeMove(this.bestMove);
+        return MoveFactory.fromPacked(this.ponderMove, pos);
+    }
+
+    // packed form of getBestMove(), see PackedMove
+    public int getBestMovePacked() {
         return this.bestMove;
     }
 
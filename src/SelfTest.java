@@ -7,19 +7,44 @@ public class SelfTest {
     private final static boolean testEval = true;
     private final static boolean testMoveMaking = true;
     private final static boolean testPositionCounts = false;
+    private final static boolean testZobrist = true;
+    private final static boolean testThreadScaling = true;
+    private final static boolean testStopLatency = true;
+    private final static boolean testSeePruning = true;
     private final static boolean testPlaySelf = true;
 
     private final static long countPositions(int depth, Board pos) {
         if (depth == 0) return 1;
 
         int numPositions = 0;
-        for (Move m : pos.getLegalMoves()) {
-            numPositions += countPositions(depth - 1, m.simulate());
+        MoveList moves = new MoveList();
+        pos.generateLegalMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            pos.makeMove(moves.get(i));
+            numPositions += countPositions(depth - 1, pos);
+            pos.unmakeMove();
         }
 
         return numPositions;
     }
 
+    // walks the move tree like countPositions, returning the number of positions where the incrementally
+    // updated zobrist key doesn't match one calculated from scratch (should always be 0)
+    private final static long countZobristMismatches(int depth, Board pos) {
+        long mismatches = (pos.getZobristKey() == pos.computeZobristKey()) ? 0 : 1;
+        if (depth == 0) return mismatches;
+
+        MoveList moves = new MoveList();
+        pos.generateLegalMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            pos.makeMove(moves.get(i));
+            mismatches += countZobristMismatches(depth - 1, pos);
+            pos.unmakeMove();
+        }
+
+        return mismatches + ((pos.getZobristKey() == pos.computeZobristKey()) ? 0 : 1);
+    }
+
     public static void main(String[] args) throws InterruptedException {
         SelfTest.testMode = true;
     
@@ -53,6 +78,8 @@ public class SelfTest {
                 Bitboards.print(Bitboards.kingMoveMask(coordIndex));
                 System.out.println("knight move mask:");
                 Bitboards.print(Bitboards.knightMoveMask(coordIndex));
+                System.out.println("queen attacks in this position:");
+                Bitboards.print(Bitboards.queenAttacks(coordIndex, ~Bitboards.emptySquares(testBoard.getBitboards())));
                 System.out.println("passed pawn mask");
                 Bitboards.print(Bitboards.passedPawnMaskWhite(coordIndex));
             }
@@ -187,6 +214,137 @@ public class SelfTest {
             }
         }
         
+        if (testZobrist) {
+            System.out.println("\n\n--> Testing zobrist hashing\n");
+
+            final String[] zobristTestPositions = {
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1"
+            };
+
+            for (String fen : zobristTestPositions) {
+                testBoard.loadFEN(fen);
+                long before = testBoard.getZobristKey();
+                System.out.print("Key mismatches in " + fen + ": " + countZobristMismatches(3, testBoard));
+                System.out.println(before == testBoard.getZobristKey() ? "" : " (key not restored!)");
+            }
+
+            // same position reached by transposing moves should have the same key
+            testBoard.loadFEN();
+            for (String m : new String[] {"g1f3", "g8f6", "b1c3"}) testBoard.makeMove(MoveFactory.fromLongAlgebraicStr(m, testBoard));
+            long key1 = testBoard.getZobristKey();
+            testBoard.loadFEN();
+            for (String m : new String[] {"b1c3", "g8f6", "g1f3"}) testBoard.makeMove(MoveFactory.fromLongAlgebraicStr(m, testBoard));
+            System.out.println("Transposition gives same key: " + (key1 == testBoard.getZobristKey()));
+
+            // shuffle knights back and forth until the start position is seen for a 3rd time
+            testBoard.loadFEN();
+            for (int i = 0; i < 2; i++) {
+                for (String m : new String[] {"g1f3", "g8f6", "f3g1", "f6g8"}) testBoard.makeMove(MoveFactory.fromLongAlgebraicStr(m, testBoard));
+            }
+            System.out.println("Repetitions: " + testBoard.getRepetitionCount() + ", game state: " + testBoard.getGameState());
+
+            // a null move should give the same key as the position with the other side to move and no en passant
+            testBoard.loadFEN("rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 3");
+            long keyBeforeNull = testBoard.getZobristKey();
+            testBoard.makeNullMove();
+            boolean nullKeyCorrect = testBoard.getZobristKey() == testBoard.computeZobristKey() &&
+                                     testBoard.getZobristKey() == new Board("rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 4").getZobristKey();
+            testBoard.unmakeNullMove();
+            System.out.println("Null move key correct: " + nullKeyCorrect + ", restored: " + (keyBeforeNull == testBoard.getZobristKey()));
+        }
+
+        if (testThreadScaling) {
+            System.out.println("\n\n--> Testing search time to depth with more threads\n");
+
+            final int depth = 6;
+            final String[] fens = {
+                "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "r1bq1rk1/pp2bppp/2n2n2/3p4/3P4/2NB1N2/PP3PPP/R1BQ1RK1 w - - 0 10"
+            };
+            // always up to at least 4 threads, so there is something to compare even on small machines
+            final int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+            long singleThreadMs = 0;
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                long totalMs = 0;
+                String bestMoves = "";
+                for (String fen : fens) {
+                    testBoard.loadFEN(fen);
+                    long startTime = System.nanoTime();
+
+                    // fresh table each time so earlier runs don't help later ones
+                    SearchThread st = new SearchThread(testBoard, depth, (short)0);
+                    st.setTranspositionTable(new TranspositionTable(Constants.TT_DEFAULT_SIZE_MB));
+                    st.setThreads(threads);
+                    st.start();
+                    st.join();
+
+                    totalMs += (System.nanoTime() - startTime)/1000000;
+                    bestMoves += " " + st.getBestMove();
+                }
+                if (threads == 1) singleThreadMs = Math.max(1, totalMs);
+
+                // speedup is the 1 thread time over this time, so 2.0 means depth was reached twice as fast
+                System.out.println(threads + " thread(s): depth " + depth + " in " + totalMs + "ms, speedup " +
+                                   String.format("%.2f", (double)singleThreadMs / Math.max(1, totalMs)) + ", best moves" + bestMoves);
+            }
+        }
+
+        if (testSeePruning) {
+            System.out.println("\n\n--> Testing quiescence nodes saved by skipping losing captures\n");
+
+            final int depth = 6;
+            final String[] fens = {
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+                "r1bq1rk1/pp2bppp/2n2n2/3p4/3P4/2NB1N2/PP3PPP/R1BQ1RK1 w - - 0 10"
+            };
+            long[] totalQNodes = {0, 0};
+            long[] totalNodes = {0, 0};
+            for (String fen : fens) {
+                testBoard.loadFEN(fen);
+                for (int i = 0; i < 2; i++) {
+                    // fresh table each time so the runs don't help each other
+                    SearchThread st = new SearchThread(testBoard, depth, (short)0);
+                    st.setTranspositionTable(new TranspositionTable(Constants.TT_DEFAULT_SIZE_MB));
+                    st.setSeePruning(i == 0);
+                    st.start();
+                    st.join();
+
+                    totalQNodes[i] += st.getQuiescenceNodes();
+                    totalNodes[i] += st.getNodes();
+                    System.out.println((i == 0 ? "with" : "without") + " see pruning: " + st.getQuiescenceNodes() + " quiescence nodes, " +
+                                       st.getNodes() + " total, best move " + st.getBestMove() + " (" + st.getEval() + ")");
+                }
+            }
+            System.out.println("Quiescence nodes: " + totalQNodes[1] + " -> " + totalQNodes[0] + ", total nodes: " + totalNodes[1] + " -> " + totalNodes[0]);
+        }
+
+        if (testStopLatency) {
+            System.out.println("\n\n--> Testing time from stop to bestmove\n");
+
+            // stop searches at different points, including straight after they start and back to back
+            testBoard.loadFEN("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1");
+            SearchController controller = new SearchController();
+            TranspositionTable transpositionTable = new TranspositionTable(Constants.TT_DEFAULT_SIZE_MB);
+            long maxLatencyNs = 0;
+            for (int delayMs : new int[] {0, 0, 1, 10, 50, 200, 500}) {
+                SearchThread st = new SearchThread(testBoard);
+                st.setTranspositionTable(transpositionTable);
+                st.setThreads(2);
+                controller.go(st);
+                Thread.sleep(delayMs);
+                controller.stop();
+
+                System.out.println("stopped after " + delayMs + "ms, latency " + (controller.getLastStopLatencyNs() / 1000) + "us");
+                maxLatencyNs = Math.max(maxLatencyNs, controller.getLastStopLatencyNs());
+            }
+            System.out.println("Max stop latency: " + (maxLatencyNs / 1000) + "us");
+        }
+
         if (testPlaySelf) {
             testBoard.loadFEN(); // load starting position again
             
@@ -197,6 +355,7 @@ public class SelfTest {
             final int incrementMs = 000;
 
             long[] timeUsedMs = {0,0};
+            TranspositionTable transpositionTable = new TranspositionTable(Constants.TT_DEFAULT_SIZE_MB);
 
             while (testBoard.getGameState() == GameState.Ongoing) {
                 long startTime = System.nanoTime();
@@ -208,9 +367,11 @@ public class SelfTest {
                 // spawn new SearchThread with fixed depth
                 // SearchThread st = new SearchThread(testBoard, (int)4);
                 SearchThread st = new SearchThread(testBoard, gameTimePerSideMs-timeUsedMs[0], gameTimePerSideMs-timeUsedMs[1], incrementMs, incrementMs);
+                st.setTranspositionTable(transpositionTable);
                 st.start();
                 st.join();
-                st.getBestMove().make();
+                Move bestMove = st.getBestMove();
+                bestMove.make();
 
                 timeUsedMs[index] += (System.nanoTime() - startTime)/1000000;
                 timeUsedMs[index] -= incrementMs;
@@ -221,7 +382,7 @@ public class SelfTest {
                 System.out.println("Eval: " + st.getEval());
                 System.out.println("Time taken (ms): " + ((System.nanoTime() - startTime)/1000000));
                 System.out.println("Max depth: " + st.getMaxDepthReached());
-                System.out.println("Move: " + st.getBestMove() + " (move no. " + testBoard.getMoveNumber() + ")");
+                System.out.println("Move: " + bestMove + " (move no. " + testBoard.getMoveNumber() + ")");
                 System.out.println("Time left (ms): " + (gameTimePerSideMs-timeUsedMs[0]) + ", " + (gameTimePerSideMs-timeUsedMs[1]));
                 System.out.println("");
             }
@@ -230,12 +391,12 @@ public class SelfTest {
             System.out.println("\nGame over. Move history:");
             int printingMoveNum = 1;
             boolean whiteMove = true;
-            for (Move m : testBoard.getMoveHistory()) {
+            for (int m : testBoard.getMoveHistory()) {
                 if (whiteMove) {
                     System.out.print(printingMoveNum + ". ");
                 }
 
-                System.out.print(m);
+                System.out.print(MoveFactory.toLongAlgebraicStr(m));
 
                 if (!whiteMove) {
                     System.out.print("\n");
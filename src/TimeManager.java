@@ -0,0 +1,100 @@
+// decides how long a timed search should take. there are 2 limits:
+// the soft limit is how long we'd like to take, and is checked between iterations: no new iteration is started once
+// it has passed, as it most likely wouldn't finish in time anyway. it gets stretched when the search looks unsure
+// (the best move keeps changing, or the score just dropped) and shrunk when the same move keeps coming out on top.
+// the hard limit is checked during the search (see SearchThread), and stops it even in the middle of an iteration
+// https://www.chessprogramming.org/Time_Management
+public class TimeManager {
+    private volatile long startTime;  // System.nanoTime() when the search started, see restart()
+    private final long softLimitMs;
+    private final long hardLimitMs;
+    private final boolean fixedTime;  // movetime searches always use all of their time
+
+    // what happened in previous iterations, see iterationComplete()
+    private int lastBestMove = PackedMove.NONE;
+    private int lastScore;
+    private int stableIterations = 0;  // number of iterations in a row the best move hasn't changed
+    private double scale = 1.0;  // applied to the soft limit
+
+    // clock based search. timeMs and incMs are for the side to move, movesToGo is 0 if unknown.
+    // moveOverheadMs is taken off the time left to allow for communication delays etc.
+    public TimeManager(long startTime, long timeMs, long incMs, int movesToGo, int moveNumber, long moveOverheadMs) {
+        this.startTime = startTime;
+        this.fixedTime = false;
+
+        final long availableMs = Math.max(1, timeMs - moveOverheadMs);
+
+        int movesLeft;
+        if (movesToGo > 0) {
+            // no need to guess if we've been told (but don't plan to use all of it on the very last move)
+            movesLeft = movesToGo + 1;
+        } else {
+            // take an educated (very approximate) guess at how many more moves we will have to make this game
+            // to be safe, this guess is quite conservative i.e. most likely bigger than it needs to be
+            movesLeft = Constants.TIME_MOVES_LEFT_ESTIMATE;
+            if (moveNumber > 20) movesLeft -= (moveNumber - 20) * 2 / 3;
+        }
+        movesLeft = Math.max(Constants.TIME_MIN_MOVES_LEFT, movesLeft);
+
+        // e.g. 100s and 40 moves left, aim for 100/40 = 2.5s for this move, plus most of the increment
+        final long maxMs = availableMs * Constants.TIME_MAX_USAGE_PERCENT / 100;
+        final long goalMs = availableMs / movesLeft + incMs * 3 / 4;
+
+        this.hardLimitMs = Math.max(1, Math.min(goalMs * Constants.TIME_HARD_LIMIT_FACTOR, maxMs));
+        this.softLimitMs = Math.max(1, Math.min(goalMs, this.hardLimitMs));
+    }
+
+    // fixed time search (go movetime)
+    public TimeManager(long startTime, long moveTimeMs, long moveOverheadMs) {
+        this.startTime = startTime;
+        this.fixedTime = true;
+        this.hardLimitMs = Math.max(1, moveTimeMs - moveOverheadMs);
+        this.softLimitMs = this.hardLimitMs;
+    }
+
+    // starts the clock again from startTime, keeping what's been learnt from the iterations so far. used when a
+    // ponder search becomes a real one (see SearchThread.ponderHit()), as our clock only starts running then
+    public void restart(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long elapsedMs() {
+        return (System.nanoTime() - this.startTime) / 1000000;
+    }
+
+    // checked every so often during the search, which must stop straight away once this returns true
+    public boolean hardLimitReached() {
+        return this.elapsedMs() >= this.hardLimitMs;
+    }
+
+    // to be called after every completed iteration, with its result (score from the side to move's view)
+    public void iterationComplete(int depth, int bestMove, int score) {
+        if (this.fixedTime) return;
+
+        if (bestMove == this.lastBestMove) this.stableIterations++;
+        else this.stableIterations = 0;
+
+        // the first few iterations are too shallow to say much
+        if (depth >= Constants.TIME_ADJUST_MIN_DEPTH) {
+            // a best move that keeps changing needs more time to settle, one that doesn't can be played sooner
+            double stability = Constants.TIME_UNSTABLE_FACTOR - 0.1 * Math.min(this.stableIterations, 6);
+
+            // if the score just dropped we've probably just seen a problem, so take longer to look for a way out
+            double scoreDrop = 1.0;
+            if (score < this.lastScore - Constants.TIME_SCORE_DROP) scoreDrop = Constants.TIME_SCORE_DROP_FACTOR;
+
+            this.scale = stability * scoreDrop;
+        }
+
+        this.lastBestMove = bestMove;
+        this.lastScore = score;
+    }
+
+    // whether there is time to start another iteration. lastIterationMs is how long the last one took, the next
+    // one will take longer than that so isn't started if it would clearly run into the hard limit
+    public boolean shouldStartIteration(long lastIterationMs) {
+        final long elapsedMs = this.elapsedMs();
+        if (this.fixedTime) return elapsedMs < this.hardLimitMs;
+        return elapsedMs < this.softLimitMs * this.scale && elapsedMs + 2 * lastIterationMs < this.hardLimitMs;
+    }
+}
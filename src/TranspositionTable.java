@@ -0,0 +1,101 @@
+import java.util.Arrays;
+
+// fixed size table of search results, indexed by zobrist key (see Board.getZobristKey())
+// https://www.chessprogramming.org/Transposition_Table
+//
+// each entry is stored as 2 longs: the packed data, and the key xored with that data. this lets any number
+// of threads read and write the table at once without locking, as an entry that gets mixed up by 2 threads
+// writing at the same time (or a long being written in 2 halves) won't pass the key check when read back.
+// https://www.chessprogramming.org/Shared_Hash_Table#Lock-less
+//
+// data layout (low to high bits): best move (16), depth (8), bound (2), age (6), score (32)
+public class TranspositionTable {
+    // bound types, saying how the stored score relates to the real score of the position (from the side to move's view)
+    public final static int BOUND_EXACT = 1;
+    public final static int BOUND_LOWER = 2;  // real score is at least the stored score
+    public final static int BOUND_UPPER = 3;  // real score is at most the stored score
+
+    private long[] keys;
+    private long[] data;
+    private int indexMask;
+    private int age;  // which search entries were written in, so old entries can be replaced first
+
+    public TranspositionTable(int sizeMb) {
+        this.resize(sizeMb);
+    }
+
+    // reallocates (and so clears) the table to use at most the given number of megabytes. the number of
+    // entries is always a power of two so that keys can be masked into an index.
+    // must not be called while a search is using the table
+    public void resize(int sizeMb) {
+        final long maxEntries = Math.max(1, (long)sizeMb * 1024 * 1024 / 16);  // 2 longs per entry
+        final int numEntries = (int)Long.highestOneBit(Math.min(maxEntries, 1L << 30));
+
+        this.keys = new long[numEntries];
+        this.data = new long[numEntries];
+        this.indexMask = numEntries - 1;
+        this.age = 0;
+    }
+
+    public void clear() {
+        Arrays.fill(this.keys, 0);
+        Arrays.fill(this.data, 0);
+        this.age = 0;
+    }
+
+    // should be called at the start of every new search
+    public void newSearch() {
+        this.age = (this.age + 1) & 63;
+    }
+
+    // returns the packed entry for this key, or 0 if there is none. use the static methods below to unpack it
+    public long probe(long key) {
+        final int index = (int)key & this.indexMask;
+        final long entry = this.data[index];
+        if ((this.keys[index] ^ entry) != key) return 0;
+        return entry;
+    }
+
+    public void store(long key, int depth, int bound, int score, int move) {
+        // depth only gets 8 bits, deeper searches are stored as if they were 255 deep rather than wrapping around
+        depth = Math.max(0, Math.min(depth, 0xff));
+
+        final int index = (int)key & this.indexMask;
+        final long existing = this.data[index];
+        final boolean sameKey = (this.keys[index] ^ existing) == key;
+
+        // keep deeper results from the current search for other positions, otherwise always replace
+        if (!sameKey && existing != 0 && TranspositionTable.age(existing) == this.age && TranspositionTable.depth(existing) > depth) return;
+
+        // don't throw away a known best move for this position if we don't have one now
+        if (move == PackedMove.NONE && sameKey) move = TranspositionTable.move(existing);
+
+        final long entry = (move & 0xffffL)
+                         | ((long)(depth & 0xff) << 16)
+                         | ((long)bound << 24)
+                         | ((long)this.age << 26)
+                         | ((long)score << 32);
+        this.data[index] = entry;
+        this.keys[index] = key ^ entry;
+    }
+
+    public final static int move(long entry) {
+        return (int)(entry & 0xffff);
+    }
+
+    public final static int depth(long entry) {
+        return (int)((entry >>> 16) & 0xff);
+    }
+
+    public final static int bound(long entry) {
+        return (int)((entry >>> 24) & 3);
+    }
+
+    public final static int age(long entry) {
+        return (int)((entry >>> 26) & 63);
+    }
+
+    public final static int score(long entry) {
+        return (int)(entry >> 32);
+    }
+}
@@ -1,21 +1,23 @@
 public class UCIBackgroundThread extends Thread {
     private SearchThread st;
+    private SearchController controller;
 
-    public UCIBackgroundThread(SearchThread st) {
+    public UCIBackgroundThread(SearchThread st, SearchController controller) {
         this.st = st;
+        this.controller = controller;
     }
 
 
-    // this class wraps a SearchThread, starting it and sending bestmove uci command once complete
+    // this class wraps a SearchThread, starting it and letting the controller send bestmove once complete
     public void run() {
         st.start();
 
         try {
             st.join();
-            System.out.println("bestmove " + st.getBestMove());
         } catch (InterruptedException e) {
-            // TODO Auto-generated catch block
             e.printStackTrace();
         }
+
+        controller.searchFinished(st);
     }
 }
@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class UCIThread extends Thread {
@@ -9,6 +11,11 @@ public class UCIThread extends Thread {
         // engine related setup
         Board board = new Board();
         SearchThread searchThread = new SearchThread(board);
+        SearchController searchController = new SearchController();
+        TranspositionTable transpositionTable = new TranspositionTable(Constants.TT_DEFAULT_SIZE_MB);
+        int numThreads = 1;
+        long moveOverheadMs = Constants.DEFAULT_MOVE_OVERHEAD_MS;
+        int multiPv = 1;
 
         long wtimeMs = 0;
         long btimeMs = 0;
@@ -25,6 +32,11 @@ public class UCIThread extends Thread {
                 case "uci":
                     System.out.println("id name java-chess-engine");
                     System.out.println("id author github.com/b-illy");
+                    System.out.println("option name Hash type spin default " + Constants.TT_DEFAULT_SIZE_MB + " min 1 max " + Constants.TT_MAX_SIZE_MB);
+                    System.out.println("option name Threads type spin default 1 min 1 max " + Constants.MAX_SEARCH_THREADS);
+                    System.out.println("option name MultiPV type spin default 1 min 1 max " + Constants.MAX_MULTI_PV);
+                    System.out.println("option name Ponder type check default false");
+                    System.out.println("option name Move Overhead type spin default " + Constants.DEFAULT_MOVE_OVERHEAD_MS + " min 0 max " + Constants.MAX_MOVE_OVERHEAD_MS);
                     System.out.println("uciok");
                     break;
 
@@ -35,7 +47,43 @@ public class UCIThread extends Thread {
                 case "register":
                     break;
 
+                case "setoption":
+                    // setoption name <id> [value <x>], where the id can have spaces in it
+                    String[] optionArgs = line.split(" ");
+                    int valueIndex = Arrays.asList(optionArgs).indexOf("value");
+                    if (optionArgs.length < 5 || valueIndex < 3 || valueIndex + 1 >= optionArgs.length) break;
+                    String optionName = String.join(" ", Arrays.copyOfRange(optionArgs, 2, valueIndex));
+                    String optionValue = optionArgs[valueIndex + 1];
+                    searchController.stop();  // options can't change under a running search
+
+                    // bad values (not a number, or too big for an int) are ignored, the option keeps its old value
+                    try {
+                        switch (optionName) {
+                            case "Hash":
+                                int sizeMb = Integer.parseInt(optionValue);
+                                transpositionTable.resize(Math.max(1, Math.min(Constants.TT_MAX_SIZE_MB, sizeMb)));
+                                break;
+                            case "Threads":
+                                numThreads = Math.max(1, Math.min(Constants.MAX_SEARCH_THREADS, Integer.parseInt(optionValue)));
+                                break;
+                            case "MultiPV":
+                                multiPv = Math.max(1, Math.min(Constants.MAX_MULTI_PV, Integer.parseInt(optionValue)));
+                                break;
+                            case "Move Overhead":
+                                moveOverheadMs = Math.max(0, Math.min(Constants.MAX_MOVE_OVERHEAD_MS, Integer.parseInt(optionValue)));
+                                break;
+                            default:
+                                break;
+                        }
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                    break;
+
                 case "ucinewgame":
+                    // results from the last game are no use anymore
+                    searchController.stop();
+                    transpositionTable.clear();
                     break;
                 
                 case "position":
@@ -65,8 +113,7 @@ public class UCIThread extends Thread {
                     }
 
                     for (int i = movesStartIndex+1; i < line.split(" ").length; i++) {
-                        Move m = MoveFactory.fromLongAlgebraicStr(line.split(" ")[i], board);
-                        m.make();
+                        board.makeMove(MoveFactory.packedFromLongAlgebraicStr(line.split(" ")[i], board));
                     }
 
                     break;
@@ -75,37 +122,66 @@ public class UCIThread extends Thread {
                     short mode = 0; // 0=normal, 1=depth, 2=nodes, 3=movetime, 4=infinite
                     long value = 0; // value to use according to mode
 
+                    // everything is optional, and only applies to this go
+                    wtimeMs = 0;
+                    btimeMs = 0;
+                    wincMs = 0;
+                    bincMs = 0;
+                    long depth = 0;
+                    long nodes = 0;
+                    long movetimeMs = 0;
+                    int movesToGo = 0;
+                    int mate = 0;
+                    boolean infinite = false;
+                    boolean ponder = false;
+                    ArrayList<Integer> searchMoves = new ArrayList<Integer>();
+
                     // read in options
-                    for (int i = 1; i < line.split(" ").length; i++) {
-                        switch (line.split(" ")[i]) {
+                    final String[] goArgs = line.split(" ");
+                    for (int i = 1; i < goArgs.length; i++) {
+                        // every option but infinite and searchmoves is followed by a number
+                        final boolean hasNumber = i+1 < goArgs.length && goArgs[i+1].matches("-?[0-9]+");
+                        switch (goArgs[i]) {
                             case "wtime":
-                                wtimeMs = Integer.parseInt(line.split(" ")[i+1]);
-                                i++;
+                                if (hasNumber) wtimeMs = Long.parseLong(goArgs[++i]);
                                 break;
                             case "btime":
-                                btimeMs = Integer.parseInt(line.split(" ")[i+1]);
-                                i++;
+                                if (hasNumber) btimeMs = Long.parseLong(goArgs[++i]);
                                 break;
                             case "winc":
-                                wincMs = Integer.parseInt(line.split(" ")[i+1]);
-                                i++;
+                                if (hasNumber) wincMs = Long.parseLong(goArgs[++i]);
                                 break;
                             case "binc":
-                                bincMs = Integer.parseInt(line.split(" ")[i+1]);
-                                i++;
+                                if (hasNumber) bincMs = Long.parseLong(goArgs[++i]);
+                                break;
+                            case "movestogo":
+                                if (hasNumber) movesToGo = Integer.parseInt(goArgs[++i]);
                                 break;
 
                             case "depth":
-                                mode = 1;
+                                if (hasNumber) depth = Math.min(Long.parseLong(goArgs[++i]), Constants.MAX_MINIMAX_DEPTH);
                                 break;
                             case "nodes":
-                                mode = 2;
+                                if (hasNumber) nodes = Long.parseLong(goArgs[++i]);
+                                break;
+                            case "mate":
+                                if (hasNumber) mate = Integer.parseInt(goArgs[++i]);
                                 break;
                             case "movetime":
-                                mode = 3;
+                                if (hasNumber) movetimeMs = Long.parseLong(goArgs[++i]);
                                 break;
                             case "infinite":
-                                mode = 4;
+                                infinite = true;
+                                break;
+                            case "ponder":
+                                ponder = true;
+                                break;
+
+                            case "searchmoves":
+                                // moves until the next option (or the end of the line)
+                                while (i+1 < goArgs.length && goArgs[i+1].matches("[a-h][1-8][a-h][1-8][qrbn]?")) {
+                                    searchMoves.add(MoveFactory.packedFromLongAlgebraicStr(goArgs[++i], board));
+                                }
                                 break;
 
                             default:
@@ -113,6 +189,30 @@ public class UCIThread extends Thread {
                         }
                     }
 
+                    // a mate in n moves is found by a 2n-1 ply search at most
+                    long depthLimit = depth;
+                    if (mate > 0) depthLimit = Math.min((depthLimit > 0) ? depthLimit : Long.MAX_VALUE, Math.min(2L * mate - 1, Constants.MAX_MINIMAX_DEPTH));
+
+                    // pick a mode, the other limits are applied on top of it below
+                    if (infinite) {
+                        mode = 4;
+                    } else if (movetimeMs > 0) {
+                        mode = 3;
+                        value = movetimeMs;
+                    } else if (wtimeMs > 0 || btimeMs > 0) {
+                        mode = 0;
+                    } else if (nodes > 0) {
+                        mode = 2;
+                        value = nodes;
+                    } else if (depthLimit > 0) {
+                        mode = 1;
+                        value = depthLimit;
+                    } else {
+                        // nothing to limit the search by (e.g. just 'go' or 'go searchmoves ...'), so analyse until
+                        // told to stop
+                        mode = 4;
+                    }
+
                     // setup search in line with requested options
                     switch(mode) {
                         case 0: // normal
@@ -134,25 +234,40 @@ public class UCIThread extends Thread {
                             break;
                     }
 
+                    if (!infinite) {
+                        searchThread.setNodeLimit(nodes);
+                        searchThread.setDepthLimit((int)depthLimit);
+                        searchThread.setMateLimit(mate);
+                    }
+                    searchThread.setMovesToGo(movesToGo);
+                    searchThread.setMoveOverhead(moveOverheadMs);
+                    searchThread.setPondering(ponder);
+                    searchThread.setMultiPv(multiPv);
+                    int[] searchMovesArr = new int[searchMoves.size()];
+                    for (int i = 0; i < searchMovesArr.length; i++) searchMovesArr[i] = searchMoves.get(i);
+                    searchThread.setSearchMoves(searchMovesArr);
+
                     // go!
-                    UCIBackgroundThread bgThread = new UCIBackgroundThread(searchThread);
-                    bgThread.start();
+                    searchThread.setTranspositionTable(transpositionTable);
+                    searchThread.setThreads(numThreads);
+                    searchThread.setPrintInfo(true);
+                    searchController.go(searchThread);
 
                     break;
                 
-                case "stop":
-                    searchThread.sendStopSignal();
-                    try {
-                        searchThread.join();
-                    } catch (InterruptedException e) {
-                        // TODO Auto-generated catch block
-                        e.printStackTrace();
-                    }
+                case "ponderhit":
+                    // the opponent played the move we were pondering on, so the search keeps going for real
+                    searchController.ponderHit();
+                    break;
 
-                    System.out.println("bestmove " + searchThread.getBestMove());
+                case "stop":
+                    // bestmove is sent by the controller (once the search has actually stopped)
+                    searchController.stop();
                     break;
 
                 case "quit":
+                    // a search that's still running gets to send its bestmove first
+                    searchController.stop();
                     System.exit(100);
                     break;
 
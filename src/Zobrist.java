@@ -0,0 +1,39 @@
+// random keys used to hash a position into a single long, see Board.getZobristKey()
+// https://www.chessprogramming.org/Zobrist_Hashing
+//
+// a position's key is the xor of the keys for each piece on its square, the castling rights,
+// the file of the en passant target (if any) and sideKey if black is to move. keys are generated
+// with a fixed seed so hashes are the same every run
+public class Zobrist {
+    public final static long[][] pieceKeys = new long[12][64];  // indexed by piece code, then square index
+    public final static long[] castlingKeys = new long[16];     // indexed by castling rights bits
+    public final static long[] enPassantKeys = new long[8];     // indexed by file of the en passant target
+    public final static long sideKey;
+
+    static {
+        long seed = 0x7a3f9c2e51d8b640L;
+        for (int i = 0; i < 12; i++) {
+            for (int j = 0; j < 64; j++) {
+                seed = nextRandom(seed);
+                pieceKeys[i][j] = seed;
+            }
+        }
+        for (int i = 0; i < 16; i++) {
+            seed = nextRandom(seed);
+            castlingKeys[i] = seed;
+        }
+        for (int i = 0; i < 8; i++) {
+            seed = nextRandom(seed);
+            enPassantKeys[i] = seed;
+        }
+        sideKey = nextRandom(seed);
+    }
+
+    // xorshift64 pseudo-random number generator
+    private final static long nextRandom(long x) {
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        return x;
+    }
+}